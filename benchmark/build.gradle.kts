@@ -0,0 +1,31 @@
+plugins {
+    id("java")
+    id("me.champeau.jmh") version "0.7.2"
+}
+
+repositories {
+    mavenCentral()
+}
+
+dependencies {
+    jmh(project(":core"))
+    // the version bundled with the game, so that core is measured against what it runs on
+    jmh("com.google.code.gson:gson:2.10.1")
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_17
+    targetCompatibility = JavaVersion.VERSION_17
+}
+
+jmh {
+    warmupIterations.set(3)
+    iterations.set(5)
+    fork.set(1)
+    timeUnit.set("us")
+    benchmarkMode.set(listOf("avgt"))
+    resultFormat.set("JSON")
+    resultsFile.set(layout.buildDirectory.file("results/jmh/results.json"))
+    // e.g. ./gradlew :benchmark:jmh -Pjmh.includes=Sha256
+    (project.findProperty("jmh.includes") as String?)?.let { includes.set(listOf(it)) }
+}
@@ -0,0 +1,82 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright © 2024 nLogin Addon Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nickuc.login.addon.benchmark;
+
+import com.nickuc.login.addon.core.util.security.AES_GCM;
+import com.nickuc.login.addon.core.util.security.SecureGenerator;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.SecretKey;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AesGcmBenchmark {
+
+  @Param({"64", "4096", "262144"})
+  public int payloadSize;
+
+  private String password;
+  private byte[] payload;
+  private byte[] encrypted;
+  private byte[] salt;
+  private byte[] profileSalt;
+
+  @Setup
+  public void setup() throws GeneralSecurityException {
+    password = SecureGenerator.generateKey();
+    payload = SecureGenerator.getRandomNonce(payloadSize);
+    profileSalt = SecureGenerator.getRandomNonce(AES_GCM.PROFILE_SALT_LENGTH);
+    encrypted = AES_GCM.encrypt(payload, password, profileSalt);
+    salt = SecureGenerator.getRandomNonce(16);
+  }
+
+  @Benchmark
+  public byte[] encrypt() throws GeneralSecurityException {
+    return AES_GCM.encrypt(payload, password, profileSalt);
+  }
+
+  @Benchmark
+  public byte[] decrypt() throws GeneralSecurityException {
+    return AES_GCM.decrypt(encrypted, password);
+  }
+
+  // the derived key cache is dropped, so every call pays for PBKDF2
+  @Benchmark
+  public byte[] decryptColdCache() throws GeneralSecurityException {
+    AES_GCM.KEY_CACHE.invalidateAll();
+    return AES_GCM.decrypt(encrypted, password);
+  }
+
+  @Benchmark
+  public SecretKey getAESKeyFromPassword() throws GeneralSecurityException {
+    return AES_GCM.getAESKeyFromPassword(password.toCharArray(), salt);
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright © 2024 nLogin Addon Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nickuc.login.addon.benchmark;
+
+import com.nickuc.login.addon.core.handler.EventHandler;
+import com.nickuc.login.addon.core.packet.OutgoingPacket;
+import com.nickuc.login.addon.core.platform.Platform;
+import com.nickuc.login.addon.core.platform.Settings;
+import java.nio.file.Path;
+
+class BenchmarkPlatform implements Platform {
+
+  private final Path directory;
+
+  BenchmarkPlatform(Path directory) {
+    this.directory = directory;
+  }
+
+  @Override
+  public boolean isEnabled() {
+    return true;
+  }
+
+  @Override
+  public Settings getSettings() {
+    return null;
+  }
+
+  @Override
+  public Path getSettingsDirectory() {
+    return directory;
+  }
+
+  @Override
+  public String translate(String key, Object... params) {
+    return key;
+  }
+
+  @Override
+  public void registerEvents(EventHandler handler) {
+  }
+
+  @Override
+  public void sendRequest(OutgoingPacket outgoingPacket) {
+  }
+
+  @Override
+  public void sendMessage(String message) {
+  }
+
+  @Override
+  public void displayMessage(String message) {
+  }
+
+  @Override
+  public void showNotification(String message) {
+  }
+
+  @Override
+  public void runOnClientThread(Runnable runnable) {
+    runnable.run();
+  }
+
+  @Override
+  public void info(String message) {
+  }
+
+  @Override
+  public void error(String message, Throwable t) {
+  }
+}
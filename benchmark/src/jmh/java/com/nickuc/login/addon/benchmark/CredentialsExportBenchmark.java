@@ -0,0 +1,109 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright © 2024 nLogin Addon Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nickuc.login.addon.benchmark;
+
+import com.google.gson.JsonObject;
+import com.nickuc.login.addon.core.Constants;
+import com.nickuc.login.addon.core.model.Credentials;
+import com.nickuc.login.addon.core.model.User;
+import com.nickuc.login.addon.core.util.io.IOUtil;
+import com.nickuc.login.addon.core.util.security.SHA256;
+import com.nickuc.login.addon.core.util.security.SecureGenerator;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Compares the JSON tree export with the streaming one. Run with {@code -prof gc} to see the bytes
+ * allocated per export ({@code gc.alloc.rate.norm}).
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CredentialsExportBenchmark {
+
+  @Param({"1000", "10000"})
+  public int serverCount;
+
+  @Param({"true", "false"})
+  public boolean pretty;
+
+  private Path directory;
+  private File file;
+  private Credentials credentials;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    directory = Files.createTempDirectory("nlogin-addon-bench");
+    file = directory.resolve("credentials.export.json").toFile();
+
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+    generator.initialize(2048);
+    PublicKey key = generator.generateKeyPair().getPublic();
+
+    credentials = Credentials.deserialize(new JsonObject());
+    credentials.addKey(SecureGenerator.generateKey());
+    User user = credentials.getUser(UUID.randomUUID());
+    for (int i = 0; i < serverCount; i++) {
+      user.updateServer(SHA256.hash("server-" + i), key, SecureGenerator.generatePassword());
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    try (var files = Files.list(directory)) {
+      for (Path path : (Iterable<Path>) files::iterator) {
+        Files.deleteIfExists(path);
+      }
+    }
+    Files.deleteIfExists(directory);
+  }
+
+  // tree, then string, then bytes: three copies of the store in memory
+  @Benchmark
+  public void exportTree() throws IOException {
+    JsonObject json = credentials.serialize(new JsonObject());
+    String content = (pretty ? Constants.GSON_PRETTY : Constants.GSON).toJson(json);
+    IOUtil.writeAtomically(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Benchmark
+  public void exportStreaming() throws IOException {
+    credentials.exportJson(file, pretty);
+  }
+}
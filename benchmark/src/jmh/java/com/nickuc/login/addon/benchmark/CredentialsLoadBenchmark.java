@@ -0,0 +1,131 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright © 2024 nLogin Addon Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nickuc.login.addon.benchmark;
+
+import com.google.gson.JsonObject;
+import com.nickuc.login.addon.core.Constants;
+import com.nickuc.login.addon.core.model.Credentials;
+import com.nickuc.login.addon.core.model.Server;
+import com.nickuc.login.addon.core.model.User;
+import com.nickuc.login.addon.core.util.security.SHA256;
+import com.nickuc.login.addon.core.util.security.SecureGenerator;
+import java.io.File;
+import java.io.IOException;
+import java.lang.System.Logger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CredentialsLoadBenchmark {
+
+  @Param({"1000", "10000"})
+  public int serverCount;
+
+  private Path directory;
+  private File binaryFile;
+  private File jsonFile;
+  private UUID userId;
+  private String serverId;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    directory = Files.createTempDirectory("nlogin-addon-bench");
+    binaryFile = directory.resolve("credentials.dat").toFile();
+    jsonFile = directory.resolve("credentials.json").toFile();
+
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+    generator.initialize(2048);
+    PublicKey key = generator.generateKeyPair().getPublic();
+
+    Credentials credentials = Credentials.load(binaryFile);
+    credentials.addKey(SecureGenerator.generateKey());
+    userId = UUID.randomUUID();
+    serverId = SHA256.hash("server-" + (serverCount / 2));
+    User user = credentials.getUser(userId);
+    for (int i = 0; i < serverCount; i++) {
+      user.updateServer(SHA256.hash("server-" + i), key, SecureGenerator.generatePassword());
+    }
+    credentials.compact(binaryFile);
+    credentials.exportJson(jsonFile);
+
+    long binaryLength = 0;
+    try (var files = Files.walk(directory)) {
+      for (Path path : (Iterable<Path>) files::iterator) {
+        if (path.getFileName().toString().endsWith(".dat")) {
+          binaryLength += Files.size(path);
+        }
+      }
+    }
+    System.getLogger(CredentialsLoadBenchmark.class.getName()).log(Logger.Level.INFO,
+        "credentials.json: " + jsonFile.length() + " bytes, binary snapshot: " + binaryLength + " bytes");
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    // user shards are in a subdirectory
+    try (var files = Files.walk(directory)) {
+      for (Path path : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+        Files.deleteIfExists(path);
+      }
+    }
+  }
+
+  @Benchmark
+  public Credentials loadJson() throws IOException {
+    String content = new String(Files.readAllBytes(jsonFile.toPath()), StandardCharsets.UTF_8);
+    return Credentials.deserialize(Constants.GSON.fromJson(content, JsonObject.class));
+  }
+
+  @Benchmark
+  public Credentials loadJsonStreaming() throws IOException {
+    return Credentials.importJson(jsonFile);
+  }
+
+  @Benchmark
+  public Credentials loadBinary() throws IOException {
+    return Credentials.load(binaryFile);
+  }
+
+  // what a session actually needs: one server of one user
+  @Benchmark
+  public Server loadBinaryAndFind() throws IOException {
+    return Credentials.load(binaryFile).getUser(userId).getServer(serverId);
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright © 2024 nLogin Addon Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nickuc.login.addon.benchmark;
+
+import com.google.gson.JsonObject;
+import com.nickuc.login.addon.core.model.Credentials;
+import com.nickuc.login.addon.core.model.User;
+import com.nickuc.login.addon.core.platform.Platform;
+import com.nickuc.login.addon.core.util.security.SHA256;
+import com.nickuc.login.addon.core.util.security.SecureGenerator;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CredentialsSaveBenchmark {
+
+  @Param({"1000", "10000"})
+  public int serverCount;
+
+  private Path directory;
+  private File file;
+  private Platform platform;
+  private Credentials credentials;
+  private User user;
+  private PublicKey key;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    directory = Files.createTempDirectory("nlogin-addon-bench");
+    file = directory.resolve("credentials.dat").toFile();
+    platform = new BenchmarkPlatform(directory);
+
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+    generator.initialize(2048);
+    PublicKey key = generator.generateKeyPair().getPublic();
+
+    this.key = key;
+    credentials = Credentials.deserialize(new JsonObject());
+    user = credentials.getUser(UUID.randomUUID());
+    for (int i = 0; i < serverCount; i++) {
+      user.updateServer(SHA256.hash("server-" + i), key, SecureGenerator.generatePassword());
+    }
+    credentials.save(file, platform);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    // user shards are in a subdirectory
+    try (var files = Files.walk(directory)) {
+      for (Path path : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+        Files.deleteIfExists(path);
+      }
+    }
+  }
+
+  // a single changed server, appended to the journal (compacted every few hundred saves)
+  @Benchmark
+  public void save() throws IOException {
+    user.updateServer(SHA256.hash("server-0"), key, "password");
+    credentials.save(file, platform);
+  }
+
+  @Benchmark
+  public void compact() throws IOException {
+    credentials.compact(file);
+  }
+}
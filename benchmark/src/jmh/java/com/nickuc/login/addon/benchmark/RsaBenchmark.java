@@ -0,0 +1,96 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright © 2024 nLogin Addon Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nickuc.login.addon.benchmark;
+
+import com.nickuc.login.addon.core.util.security.RSA;
+import com.nickuc.login.addon.core.util.security.SecureGenerator;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.Cipher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RsaBenchmark {
+
+  // more than the parsed key cache holds, so cycling through them always misses
+  private static final int COLD_KEY_COUNT = 64;
+
+  private PublicKey publicKey;
+  private byte[] encodedKey;
+  private byte[] signature;
+  private byte[][] coldKeys;
+  private int coldIndex;
+
+  @Setup
+  public void setup() throws GeneralSecurityException {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+    generator.initialize(2048);
+    KeyPair keyPair = generator.generateKeyPair();
+
+    Cipher cipher = Cipher.getInstance("RSA");
+    cipher.init(Cipher.ENCRYPT_MODE, keyPair.getPrivate());
+
+    publicKey = keyPair.getPublic();
+    encodedKey = publicKey.getEncoded();
+    signature = cipher.doFinal(SecureGenerator.generateRSAChallenge());
+
+    coldKeys = new byte[COLD_KEY_COUNT][];
+    for (int i = 0; i < coldKeys.length; i++) {
+      coldKeys[i] = generator.generateKeyPair().getPublic().getEncoded();
+    }
+  }
+
+  @Benchmark
+  public byte[] decrypt() {
+    return RSA.decrypt(publicKey, signature);
+  }
+
+  // the same server joined again, served by the parsed key cache
+  @Benchmark
+  public PublicKey getPublicKeyFromBytes() {
+    return RSA.getPublicKeyFromBytes(encodedKey);
+  }
+
+  // a server seen for the first time, the key is parsed
+  @Benchmark
+  public PublicKey getPublicKeyFromBytesCold() {
+    byte[] encodedKey = coldKeys[coldIndex];
+    coldIndex = (coldIndex + 1) % coldKeys.length;
+    return RSA.getPublicKeyFromBytes(encodedKey);
+  }
+
+  @Benchmark
+  public String getKeyId() {
+    return RSA.getKeyId(publicKey);
+  }
+}
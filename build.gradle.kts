@@ -38,7 +38,7 @@ labyMod {
         }
 
         subprojects.forEach {
-            if (it.name != "game-runner") {
+            if (it.name != "game-runner" && it.name != "benchmark") {
                 filter(it.name)
             }
         }
@@ -50,6 +50,11 @@ labyMod {
 }
 
 subprojects {
+    // plain JMH project, it does not ship with the addon
+    if (name == "benchmark") {
+        return@subprojects
+    }
+
     plugins.apply("java-library")
     plugins.apply("net.labymod.gradle")
     plugins.apply("net.labymod.gradle.addon")
@@ -26,6 +26,7 @@ package com.nickuc.login.addon.core;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import java.util.concurrent.TimeUnit;
 
 public class Constants {
 
@@ -34,6 +35,13 @@ public class Constants {
   public static final int MAIN_KEY_LENGTH = 192;
   public static final int DEFAULT_PASSWORD_LENGTH = 12;
   public static final int RSA_CHALLENGE_BITS = 32;
+  public static final long JOURNAL_COMPACTION_THRESHOLD = 64 * 1024;
+  public static final long SAVE_QUIET_PERIOD_MILLIS = 1000;
+  public static final long SAVE_MAX_DELAY_MILLIS = 10_000;
+  public static final long SYNC_QUIET_PERIOD_MILLIS = 2000;
+  public static final long SYNC_MAX_DELAY_MILLIS = 30_000;
+  public static final long SYNC_RETRY_BASE_MILLIS = 5000;
+  public static final long SYNC_RETRY_MAX_MILLIS = TimeUnit.MINUTES.toMillis(10);
 
   public static final Gson GSON = new GsonBuilder()
       .disableHtmlEscaping()
@@ -33,6 +33,8 @@ import com.nickuc.login.addon.core.packet.PacketRegistry;
 import com.nickuc.login.addon.core.packet.outgoing.OutgoingHandshakePacket;
 import com.nickuc.login.addon.core.platform.Platform;
 import com.nickuc.login.addon.core.platform.Settings;
+import com.nickuc.login.addon.core.util.security.AES_GCM;
+import com.nickuc.login.addon.core.util.security.SecureGenerator;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.HashSet;
@@ -62,8 +64,22 @@ public class EventHandler {
       }
 
       Session session = addon.getSessionManager().newSession();
-      platform.sendRequest(
-          new OutgoingHandshakePacket(session.getRsaChallenge(), addon.getSettings()));
+      addon.refreshCredentials(() -> {
+        try {
+          if (addon.getSessionManager().getCurrent() != session) {
+            // left the server while the credentials were read
+            return;
+          }
+
+          addon.debug(SecureGenerator.poolStats());
+          addon.debug("Derived key cache: " + AES_GCM.KEY_CACHE.stats());
+          addon.debug("Scheduler: " + addon.getScheduler().stats());
+          platform.sendRequest(
+              new OutgoingHandshakePacket(session.getRsaChallenge(), addon.getSettings()));
+        } catch (Throwable t) {
+          addon.error("Error while handling join: " + t.getMessage(), t);
+        }
+      });
     } catch (Throwable t) {
       addon.error("Error while handling join: " + t.getMessage(), t);
     }
@@ -72,6 +88,7 @@ public class EventHandler {
   public void handleQuit() {
     try {
       addon.getSessionManager().invalidate();
+      addon.flushCredentials();
     } catch (Throwable t) {
       addon.error("Error while handling quit: " + t.getMessage(), t);
     }
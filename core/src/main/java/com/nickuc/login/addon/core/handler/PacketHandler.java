@@ -39,6 +39,7 @@ import com.nickuc.login.addon.core.packet.incoming.IncomingSyncDataPacket;
 import com.nickuc.login.addon.core.packet.outgoing.OutgoingSyncDataPacket;
 import com.nickuc.login.addon.core.packet.outgoing.OutgoingSyncRequestPacket;
 import com.nickuc.login.addon.core.platform.Platform;
+import com.nickuc.login.addon.core.util.concurrent.CryptoExecutor.Priority;
 import com.nickuc.login.addon.core.util.security.AES_GCM;
 import com.nickuc.login.addon.core.util.security.RSA;
 import com.nickuc.login.addon.core.util.security.SHA256;
@@ -67,7 +68,7 @@ public class PacketHandler {
     User user = credentials.getUser(session.getUserId());
     Server server = user.getServer(session.getServerId());
 
-    if (!verifyServerSignature(packet, session, server != null ? server.getKey() : null)) {
+    if (!verifyServerSignature(packet, session, server)) {
       Message.INVALID_SIGNATURE.notification(platform);
       return;
     }
@@ -89,7 +90,7 @@ public class PacketHandler {
     if (packet.isUserRegistered()) {
       message = "/login " + server.getPassword();
     } else {
-      String password = SecureGenerator.generatePassword();
+      String password = SecureGenerator.nextPassword();
       server = user.updateServer(session.getServerId(), packet.getKey(), password);
       message = "/register " + password + " " + password;
       session.setSyncRequired(true);
@@ -111,45 +112,77 @@ public class PacketHandler {
       return;
     }
 
+    // key lookup and decryption are moved out of the network thread, the result is applied on the client thread
+    addon.getCryptoExecutor().submit(Priority.LOGIN, () -> decryptSyncData(packet))
+        .whenComplete((json, error) -> platform.runOnClientThread(() -> {
+          if (error instanceof InvalidSyncDataException) {
+            Message message = ((InvalidSyncDataException) error).message;
+            message.display(platform);
+            message.notification(platform);
+            addon.debug(error.getMessage());
+          } else if (error != null) {
+            addon.error("Error while restoring sync data: " + error.getMessage(), error);
+          } else {
+            addon.debug("Crypto executor: " + addon.getCryptoExecutor().stats());
+            restoreSyncData(session, json);
+          }
+        }));
+  }
+
+  private JsonObject decryptSyncData(IncomingSyncDataPacket packet) throws InvalidSyncDataException {
     final String encryptedData = packet.getData();
     final String checksum = packet.getChecksum();
 
     String detectedKey = null;
-    for (String key : credentials.getKeys()) {
-      if (SHA256.checksum(key + encryptedData, checksum)) {
+    String keyId = packet.getKeyId();
+    if (keyId != null) {
+      String key = credentials.getKeyByFingerprint(keyId);
+      if (key != null && SHA256.checksum(key, encryptedData, checksum)) {
         detectedKey = key;
-        break;
+      }
+    } else {
+      // Legacy data, uploaded without the key fingerprint
+      for (String key : credentials.getKeys()) {
+        if (SHA256.checksum(key, encryptedData, checksum)) {
+          detectedKey = key;
+          break;
+        }
       }
     }
 
     if (detectedKey == null) {
-      Message.BACKUP_INVALID_PASSWORD.display(platform);
-      Message.BACKUP_INVALID_PASSWORD.notification(platform);
-      addon.debug("Cannot find the appropriate main key for this server");
-      return;
+      throw new InvalidSyncDataException(Message.BACKUP_INVALID_PASSWORD, "Cannot find the appropriate main key for this server");
     }
 
     String data;
     try {
-      data = AES_GCM.decryptFromBase64(packet.getData(), detectedKey);
+      data = AES_GCM.decryptFromBase64(encryptedData, detectedKey);
     } catch (GeneralSecurityException e) {
-      Message.BACKUP_CORRUPTED.display(platform);
-      Message.BACKUP_CORRUPTED.notification(platform);
-      addon.debug("Cannot decrypt the data provided by this server");
-      return;
+      throw new InvalidSyncDataException(Message.BACKUP_CORRUPTED, "Cannot decrypt the data provided by this server");
     }
 
-    JsonObject json;
     try {
-      json = Constants.GSON.fromJson(data, JsonObject.class);
+      return Constants.GSON.fromJson(data, JsonObject.class);
     } catch (Exception e) {
+      throw new InvalidSyncDataException(Message.BACKUP_CORRUPTED, "Cannot decode the data provided by this server");
+    }
+  }
+
+  private void restoreSyncData(Session session, @Nullable JsonObject json) {
+    if (addon.getSessionManager().getCurrent() != session) {
+      addon.debug("Session changed while the sync data was being decrypted");
+      return;
+    }
+
+    Server server = json == null ? null : Server.deserialize(json);
+    if (server != null && (!server.getId().equals(session.getServerId()) || server.getKey() == null)) {
+      // encrypted by us, but for another server: its password must not be sent here
       Message.BACKUP_CORRUPTED.display(platform);
       Message.BACKUP_CORRUPTED.notification(platform);
-      addon.debug("Cannot decode the data provided by this server");
+      addon.debug("The sync data provided by this server belongs to another server");
       return;
     }
 
-    Server server = Server.deserialize(json);
     if (server != null) {
       session.setServer(server);
       session.setSyncRequired(true);
@@ -196,15 +229,21 @@ public class PacketHandler {
     }
   }
 
-  private boolean verifyServerSignature(IncomingReadyPacket packet, Session session, @Nullable PublicKey storedPublicKey) {
+  private boolean verifyServerSignature(IncomingReadyPacket packet, Session session, @Nullable Server storedServer) {
     PublicKey remotePublicKey = session.getServerKey();
     if (remotePublicKey == null) {
       addon.debug("The server did not send its public key.");
       return false;
     }
 
-    if (storedPublicKey != null) {
-      if (!Arrays.equals(storedPublicKey.getEncoded(), remotePublicKey.getEncoded())) {
+    if (storedServer != null) {
+      PublicKey storedPublicKey = storedServer.getKey();
+      if (storedPublicKey == null) {
+        addon.debug("The stored public key of this server cannot be decoded.");
+        return false;
+      }
+
+      if (!RSA.isSameKey(storedPublicKey, remotePublicKey)) {
         addon.debug("The public key of the remote server is not the same as the stored one.");
         return false;
       }
@@ -232,17 +271,35 @@ public class PacketHandler {
     }
 
     String mainKey = credentials.getMainKey();
-    String encryptedData;
-    try {
-      encryptedData = AES_GCM.encryptToBase64(data, mainKey);
-    } catch (GeneralSecurityException e) {
-      Message.ENCRYPTION_FAILED.display(platform);
-      Message.ENCRYPTION_FAILED.notification(platform);
-      addon.error("Cannot encrypt sync data using the main key and main password", e);
-      return;
-    }
+    byte[] profileSalt = credentials.getProfileSalt();
+    addon.getCryptoExecutor().submit(Priority.LOGIN, () -> AES_GCM.encryptToBase64(data, mainKey, profileSalt))
+        .whenComplete((encryptedData, error) -> platform.runOnClientThread(() -> {
+          if (error != null) {
+            Message.ENCRYPTION_FAILED.display(platform);
+            Message.ENCRYPTION_FAILED.notification(platform);
+            addon.error("Cannot encrypt sync data using the main key and main password", error);
+            return;
+          }
 
-    String checksum = SHA256.hash(mainKey + encryptedData);
-    platform.sendRequest(new OutgoingSyncDataPacket(encryptedData, checksum));
+          if (addon.getSessionManager().getCurrent() != session) {
+            addon.debug("Session changed while the sync data was being encrypted");
+            return;
+          }
+
+          String checksum = SHA256.hash(mainKey, encryptedData);
+          platform.sendRequest(new OutgoingSyncDataPacket(encryptedData, checksum, Credentials.fingerprint(mainKey)));
+        }));
+  }
+
+  private static class InvalidSyncDataException extends GeneralSecurityException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Message message;
+
+    private InvalidSyncDataException(Message message, String reason) {
+      super(reason);
+      this.message = message;
+    }
   }
 }
@@ -37,6 +37,9 @@ public enum Message {
   BACKUP_INVALID_PASSWORD("backup.invalidPassword"),
   BACKUP_CORRUPTED("backup.corrupted"),
 
+  CREDENTIALS_EXPORTED("credentials.exported"),
+  CREDENTIALS_EXPORT_FAILED("credentials.exportFailed"),
+
   REGISTERING_PASSWORD("password.registering"),
   SAVING_PASSWORD("password.saving"),
   RECOMMEND_LINK("password.recommendLink"),
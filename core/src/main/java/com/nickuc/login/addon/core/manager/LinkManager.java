@@ -32,6 +32,7 @@ import com.nickuc.login.addon.core.i18n.Message;
 import com.nickuc.login.addon.core.model.Credentials;
 import com.nickuc.login.addon.core.nLoginAddon;
 import com.nickuc.login.addon.core.platform.Platform;
+import com.nickuc.login.addon.core.util.concurrent.CryptoExecutor.Priority;
 import com.nickuc.login.addon.core.util.io.IOUtil;
 import com.nickuc.login.addon.core.util.io.ZipUtils;
 import com.nickuc.login.addon.core.util.io.http.HttpClient;
@@ -43,6 +44,7 @@ import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.URLDecoder;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
 import java.util.ArrayList;
@@ -112,19 +114,25 @@ public class LinkManager {
     // Data will be encrypted with Zero-Knowledge Encryption if the user has an encryption password defined
     String encryptionPassword = credentials.getEncryptionPassword();
     boolean shouldEncrypt = encryptionPassword != null && !encryptionPassword.isEmpty();
+
+    // Prepend "encrypted" to facilitate downloading later
+    byte[] out;
     if (shouldEncrypt) {
+      out = new byte[1 + AES_GCM.encryptedSize(data.length)];
+      out[0] = 1;
+      byte[] profileSalt = credentials.getProfileSalt();
       try {
-        data = AES_GCM.encrypt(data, encryptionPassword);
+        ByteBuffer in = ByteBuffer.wrap(data);
+        ByteBuffer encrypted = ByteBuffer.wrap(out, 1, out.length - 1);
+        addon.getCryptoExecutor().call(Priority.SYNC, () -> AES_GCM.encrypt(in, encrypted, encryptionPassword, profileSalt));
       } catch (GeneralSecurityException e) {
         throw new RuntimeException("Cannot encrypt sync request data", e);
       }
+    } else {
+      out = new byte[1 + data.length];
+      System.arraycopy(data, 0, out, 1, data.length);
     }
 
-    // Prepend "encrypted" to facilitate downloading later
-    byte[] out = new byte[1 + data.length];
-    out[0] = (byte) (shouldEncrypt ? 1 : 0);
-    System.arraycopy(data, 0, out, 1, data.length);
-
     return client.post(String.format(UPLOAD_ENDPOINT, keysChecksum), out);
   }
 
@@ -157,8 +165,8 @@ public class LinkManager {
         boolean shouldUpload = download.responseCode() == 201;
         byte[] content = download.content();
         if (content.length > 1) {
-          byte[] data = new byte[content.length - 1];
-          System.arraycopy(content, 1, data, 0, data.length);
+          // skip the "encrypted" flag without copying the content
+          ByteBuffer data = ByteBuffer.wrap(content, 1, content.length - 1);
 
           boolean encrypted = content[0] == 1;
           if (encrypted) {
@@ -167,21 +175,25 @@ public class LinkManager {
               return SyncResponse.ENCRYPTION_PASSWORD_REQUIRED;
             }
 
+            ByteBuffer in = data;
+            ByteBuffer decrypted = ByteBuffer.allocate(AES_GCM.maxDecryptedSize(data.remaining()));
             try {
-              data = AES_GCM.decrypt(data, encryptionPassword);
+              addon.getCryptoExecutor().call(Priority.SYNC, () -> AES_GCM.decrypt(in, decrypted, encryptionPassword));
             } catch (GeneralSecurityException e) {
               return SyncResponse.ENCRYPTION_PASSWORD_INVALID;
             }
+            data = decrypted.flip();
           }
 
+          byte[] decompressed;
           try {
-            data = ZipUtils.decompress(data);
+            decompressed = ZipUtils.decompress(data.array(), data.position(), data.remaining());
           } catch (Exception e) {
             return SyncResponse.CORRUPTED_COMPRESSED_DATA;
           }
 
           try {
-            JsonObject in = Constants.GSON.fromJson(new String(data, StandardCharsets.UTF_8), JsonObject.class);
+            JsonObject in = Constants.GSON.fromJson(new String(decompressed, StandardCharsets.UTF_8), JsonObject.class);
 
             Set<String> keys = new LinkedHashSet<>();
             if (in.has("keys")) {
@@ -232,15 +244,11 @@ public class LinkManager {
     }
   }
 
-  private String keysChecksum(Set<String> keys) {
+  static String keysChecksum(Set<String> keys) {
     List<String> sortedKeys = new ArrayList<>(keys);
     Collections.sort(sortedKeys);
 
-    String checksum = "";
-    for (String key : sortedKeys) {
-      checksum = SHA256.hash(checksum + key);
-    }
-    return checksum;
+    return SHA256.chain(sortedKeys);
   }
 
   public String handleHttpRequest(Map<String, String> params) {
@@ -33,7 +33,7 @@ public class SessionManager {
   private volatile Session current;
 
   public Session newSession() {
-    return current = new Session(SecureGenerator.generateRSAChallenge());
+    return current = new Session(SecureGenerator.nextRSAChallenge());
   }
 
   public void invalidate() {
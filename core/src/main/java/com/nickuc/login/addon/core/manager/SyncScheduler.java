@@ -0,0 +1,165 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright © 2024 nLogin Addon Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nickuc.login.addon.core.manager;
+
+import com.nickuc.login.addon.core.Constants;
+import com.nickuc.login.addon.core.i18n.Message;
+import com.nickuc.login.addon.core.manager.LinkManager.SyncResponse;
+import com.nickuc.login.addon.core.model.Credentials;
+import com.nickuc.login.addon.core.nLoginAddon;
+import com.nickuc.login.addon.core.platform.Platform;
+import com.nickuc.login.addon.core.util.concurrent.DebouncedTask;
+import com.nickuc.login.addon.core.util.concurrent.Scheduler;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import lombok.Value;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Syncs the backup with the linked account once the synced data (link, encryption password or
+ * keys) changes, instead of polling.
+ * <p>
+ * Changes are debounced, and a sync only happens if the data differs from the last synced one,
+ * so the changes made by the sync itself do not trigger another one. Failures that may go away
+ * by themselves, including {@link SyncResponse#TOO_MANY_REQUESTS}, are retried with exponential
+ * backoff and jitter; the others wait for the next change.
+ */
+public class SyncScheduler {
+
+  private final nLoginAddon addon;
+  private final Platform platform;
+  private final Credentials credentials;
+  private final LinkManager linkManager;
+  private final Scheduler scheduler;
+  private final DebouncedTask task;
+  private final Runnable listener;
+
+  private @Nullable SyncState lastSynced;
+  private int failures;
+  private @Nullable ScheduledFuture<?> retry;
+  private boolean retryPending;
+  private boolean firstRun = true;
+
+  public SyncScheduler(nLoginAddon addon, Platform platform, Credentials credentials, LinkManager linkManager,
+      Scheduler scheduler) {
+    this.addon = addon;
+    this.platform = platform;
+    this.credentials = credentials;
+    this.linkManager = linkManager;
+    this.scheduler = scheduler;
+    this.task = new DebouncedTask(scheduler, "sync", this::sync,
+        Constants.SYNC_QUIET_PERIOD_MILLIS, Constants.SYNC_MAX_DELAY_MILLIS);
+    this.listener = task::signal;
+  }
+
+  public void start() {
+    credentials.getChanges().addListener(listener);
+    task.signal();
+  }
+
+  public void stop() {
+    credentials.getChanges().removeListener(listener);
+    task.cancel();
+    synchronized (this) {
+      if (retry != null) {
+        retry.cancel(false);
+      }
+    }
+  }
+
+  private synchronized void sync() {
+    String linkedToken = credentials.getLinkedToken();
+    if (linkedToken == null) {
+      failures = 0;
+      return;
+    }
+
+    // while backing off, the scheduled retry also covers the changes made meanwhile
+    if (retryPending || SyncState.of(credentials).equals(lastSynced)) {
+      return;
+    }
+
+    SyncResponse syncResponse;
+    try {
+      syncResponse = linkManager.sync(linkedToken, credentials.getLinkedEmail());
+      platform.info("Remote Sync response: " + syncResponse);
+    } catch (Throwable t) {
+      addon.error("Cannot sync backup data remotely", t);
+      syncResponse = null;
+    }
+
+    boolean valid = SyncResponse.VALID_RESPONSE.equals(syncResponse);
+    if (valid) {
+      lastSynced = SyncState.of(credentials);
+    }
+    if (syncResponse != null && (valid ? !firstRun || failures > 0 : failures == 0)) {
+      platform.showNotification(valid ?
+          Message.NOTIFICATION_SYNC_SUCCESS.toText(platform) :
+          Message.NOTIFICATION_SYNC_FAILED.toText(platform, syncResponse.getMessage(platform)));
+    }
+    firstRun = false;
+
+    if (valid || !isTransient(syncResponse)) {
+      failures = 0;
+      return;
+    }
+
+    long delay = backoff(failures++);
+    addon.debug("Sync failed " + failures + " time(s), retrying in " + delay + "ms");
+    retryPending = true;
+    retry = scheduler.schedule("sync-retry", this::retry, delay, TimeUnit.MILLISECONDS);
+  }
+
+  private synchronized void retry() {
+    retryPending = false;
+    sync();
+  }
+
+  // errors without a response (e.g. network), rate limits and unexpected status codes
+  private static boolean isTransient(@Nullable SyncResponse syncResponse) {
+    return syncResponse == null || syncResponse.equals(SyncResponse.TOO_MANY_REQUESTS) || syncResponse.getMessage() == null;
+  }
+
+  // half of the exponential delay is randomized, so clients rate limited together spread out
+  private static long backoff(int failures) {
+    long delay = Math.min(Constants.SYNC_RETRY_MAX_MILLIS, Constants.SYNC_RETRY_BASE_MILLIS << Math.min(failures, 20));
+    return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+  }
+
+  @Value
+  private static class SyncState {
+
+    String linkedToken;
+    String linkedEmail;
+    String encryptionPassword;
+    String keysChecksum;
+
+    static SyncState of(Credentials credentials) {
+      return new SyncState(credentials.getLinkedToken(), credentials.getLinkedEmail(),
+          credentials.getEncryptionPassword(), LinkManager.keysChecksum(credentials.getKeys()));
+    }
+  }
+}
@@ -0,0 +1,182 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright © 2024 nLogin Addon Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nickuc.login.addon.core.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.Value;
+
+/**
+ * Tracks what changed in the credentials: a global modification sequence, so that checking for
+ * changes is O(1), and a {@link DirtySet} per consumer (journal, shard compaction, remote uploads).
+ * <p>
+ * Consumers take entries out of their set before reading the current state, and a change made
+ * meanwhile marks the entry again, so nothing is missed without locking the model.
+ */
+public final class ChangeTracker {
+
+  private final AtomicLong sequence = new AtomicLong();
+  private final List<DirtySet> sets = new CopyOnWriteArrayList<>();
+  private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+  public enum Field {
+    ENCRYPTION_PASSWORD,
+    LINKING,
+    PROFILE_SALT
+  }
+
+  /**
+   * @return a counter incremented on every change
+   */
+  public long getSequence() {
+    return sequence.get();
+  }
+
+  /**
+   * Creates a dirty set that receives every change made from now on.
+   */
+  public DirtySet register() {
+    DirtySet set = new DirtySet();
+    sets.add(set);
+    return set;
+  }
+
+  /**
+   * Adds a listener called on the mutating thread after every change, it must return quickly.
+   */
+  public void addListener(Runnable listener) {
+    listeners.add(listener);
+  }
+
+  public void removeListener(Runnable listener) {
+    listeners.remove(listener);
+  }
+
+  void markField(Field field) {
+    for (DirtySet set : sets) {
+      set.fields.add(field);
+    }
+    changed();
+  }
+
+  void markKey(String key) {
+    for (DirtySet set : sets) {
+      set.keys.add(key);
+    }
+    changed();
+  }
+
+  void markServer(UUID user, String serverId) {
+    for (DirtySet set : sets) {
+      set.markServer(user, serverId);
+    }
+    changed();
+  }
+
+  private void changed() {
+    sequence.incrementAndGet();
+    for (Runnable listener : listeners) {
+      listener.run();
+    }
+  }
+
+  public static final class DirtySet {
+
+    private final Set<Field> fields = ConcurrentHashMap.newKeySet();
+    private final Set<String> keys = ConcurrentHashMap.newKeySet();
+    private final Set<UUID> users = ConcurrentHashMap.newKeySet();
+    private final Set<ServerRef> servers = ConcurrentHashMap.newKeySet();
+
+    private DirtySet() {
+    }
+
+    public boolean pollField(Field field) {
+      return fields.remove(field);
+    }
+
+    public boolean pollKey(String key) {
+      return keys.remove(key);
+    }
+
+    /**
+     * @return the users with a modified server, removed from this set
+     */
+    public List<UUID> pollUsers() {
+      List<UUID> polled = new ArrayList<>();
+      for (UUID user : users) {
+        if (users.remove(user)) {
+          polled.add(user);
+        }
+      }
+      return polled;
+    }
+
+    /**
+     * @return the modified servers, removed from this set
+     */
+    public List<ServerRef> pollServers() {
+      List<ServerRef> polled = new ArrayList<>();
+      for (ServerRef server : servers) {
+        if (servers.remove(server)) {
+          polled.add(server);
+        }
+      }
+      return polled;
+    }
+
+    boolean isMarked(Field field) {
+      return fields.contains(field);
+    }
+
+    boolean isMarked(UUID user, String serverId) {
+      return servers.contains(new ServerRef(user, serverId));
+    }
+
+    void markField(Field field) {
+      fields.add(field);
+    }
+
+    void markKey(String key) {
+      keys.add(key);
+    }
+
+    void markServer(UUID user, String serverId) {
+      servers.add(new ServerRef(user, serverId));
+      users.add(user);
+    }
+  }
+
+  @Value
+  public static class ServerRef {
+
+    UUID user;
+    String serverId;
+  }
+}
@@ -27,98 +27,468 @@ package com.nickuc.login.addon.core.model;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 import com.nickuc.login.addon.core.Constants;
+import com.nickuc.login.addon.core.model.ChangeTracker.DirtySet;
+import com.nickuc.login.addon.core.model.ChangeTracker.Field;
+import com.nickuc.login.addon.core.model.ChangeTracker.ServerRef;
 import com.nickuc.login.addon.core.platform.Platform;
+import com.nickuc.login.addon.core.util.io.IOUtil;
+import com.nickuc.login.addon.core.util.security.AES_GCM;
+import com.nickuc.login.addon.core.util.security.SHA256;
 import com.nickuc.login.addon.core.util.security.SecureGenerator;
+import java.io.BufferedReader;
+import java.io.EOFException;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
-import java.util.LinkedHashSet;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
 import lombok.AccessLevel;
-import lombok.AllArgsConstructor;
-import lombok.Cleanup;
 import lombok.Getter;
+import lombok.NoArgsConstructor;
 import org.jetbrains.annotations.Nullable;
 
-@AllArgsConstructor(access = AccessLevel.PRIVATE)
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
 public class Credentials {
 
-  private @Getter String encryptionPassword;
-  private @Getter @Nullable String linkedToken;
-  private @Getter @Nullable String linkedEmail;
-  private @Getter final Set<String> keys;
-  private final Map<UUID, User> users;
-  private volatile boolean modified;
+  private static final String KEY_FINGERPRINT_PREFIX = "nlogin-addon-key:";
+  private static final int KEY_FINGERPRINT_LENGTH = 16;
+
+  private volatile @Getter String encryptionPassword = "";
+  private volatile @Getter @Nullable String linkedToken;
+  private volatile @Getter @Nullable String linkedEmail;
+  private volatile @Nullable byte[] profileSalt;
+  private @Getter final Set<String> keys = new CopyOnWriteArraySet<>(); // in insertion order, the first one is the main key
+  private final Map<UUID, User> users = new ConcurrentHashMap<>();
+  private final Map<String, String> keysByFingerprint = new ConcurrentHashMap<>();
+
+  private final @Getter ChangeTracker changes = new ChangeTracker();
+  private final DirtySet unsaved = changes.register();
+  private volatile long savedSequence;
+
+  private long generation;
+  private long journalPosition; // end of the journal records already applied or written
+  private boolean compactionRequired = true;
+  private volatile @Nullable UserShards shards;
+  private final Set<UUID> outdatedShards = new HashSet<>(); // modified since the last compaction, guarded by CredentialsLock
 
   public User getUser(UUID id) {
-    return users.computeIfAbsent(id, uuid -> new User(id, new HashMap<>()));
+    return users.computeIfAbsent(id, this::loadUser);
+  }
+
+  // Maps the shard of the user on first access, servers are only decoded when looked up
+  private User loadUser(UUID id) {
+    User user = new User(id, new ConcurrentHashMap<>(), changes);
+    UserShards shards = this.shards;
+    if (shards != null) {
+      try {
+        user.snapshot = shards.open(id);
+      } catch (IOException e) {
+        throw new UncheckedIOException("Cannot load credentials of " + id, e);
+      }
+    }
+    return user;
   }
 
   public void setEncryptionPassword(String encryptionPassword) {
+    AES_GCM.KEY_CACHE.invalidate(this.encryptionPassword);
     this.encryptionPassword = encryptionPassword;
-    modified = true;
+    changes.markField(Field.ENCRYPTION_PASSWORD);
   }
 
   public void setLinkedToken(String linkedToken) {
-    this.linkedToken = linkedToken;
-    modified = true;
+    if (!Objects.equals(this.linkedToken, linkedToken)) {
+      this.linkedToken = linkedToken;
+      changes.markField(Field.LINKING);
+    }
   }
 
   public void setLinkedEmail(String linkedEmail) {
-    this.linkedEmail = linkedEmail;
-    modified = true;
+    if (!Objects.equals(this.linkedEmail, linkedEmail)) {
+      this.linkedEmail = linkedEmail;
+      changes.markField(Field.LINKING);
+    }
   }
 
   public void addKey(String key) {
+    // indexed first, so a key found in the set can always be found by its fingerprint
+    keysByFingerprint.putIfAbsent(fingerprint(key), key);
     if (keys.add(key)) {
-      modified = true;
+      changes.markKey(key);
     }
   }
 
   public String getMainKey() {
-    if (keys.isEmpty() && keys.add(SecureGenerator.generateKey())) {
-      modified = true;
+    Iterator<String> iterator = keys.iterator();
+    if (iterator.hasNext()) {
+      return iterator.next();
+    }
+
+    // a key restored by a sync meanwhile becomes the main key instead
+    synchronized (keys) {
+      if (keys.isEmpty()) {
+        addKey(SecureGenerator.generateKey());
+      }
+    }
+    return keys.iterator().next();
+  }
+
+  /**
+   * Salt the encryption keys of every password are derived with, kept across restarts so that
+   * the key derivation runs once per password. Salts are not secret, other content carries its own.
+   */
+  public byte[] getProfileSalt() {
+    byte[] profileSalt = this.profileSalt;
+    return profileSalt != null ? profileSalt.clone() : createProfileSalt();
+  }
+
+  private synchronized byte[] createProfileSalt() {
+    if (profileSalt == null) {
+      profileSalt = SecureGenerator.getRandomNonce(AES_GCM.PROFILE_SALT_LENGTH);
+      changes.markField(Field.PROFILE_SALT);
     }
-    return keys.stream().findFirst().get();
+    return profileSalt.clone();
+  }
+
+  @Nullable
+  public String getKeyByFingerprint(String fingerprint) {
+    return keysByFingerprint.get(fingerprint);
+  }
+
+  // Short public identifier of a main key, sent along with the sync data
+  public static String fingerprint(String key) {
+    return SHA256.hash(KEY_FINGERPRINT_PREFIX, key).substring(0, KEY_FINGERPRINT_LENGTH);
   }
 
   public boolean isModified() {
-    if (modified) {
-      return true;
+    return changes.getSequence() != savedSequence;
+  }
+
+  /**
+   * Appends the pending changes to the journal next to the given snapshot file, folding the
+   * journal into a new snapshot once it grows past {@link Constants#JOURNAL_COMPACTION_THRESHOLD}.
+   * Changes written by other clients since the last read are merged first.
+   */
+  @SuppressWarnings("try")
+  public void save(File file, Platform platform) throws IOException  {
+    long sequence = changes.getSequence();
+    if (sequence == savedSequence) {
+      return;
     }
 
-    for (User user : users.values()) {
-      if (user.isModified()) {
-        return modified = true;
+    try (CredentialsLock lock = CredentialsLock.acquire(file)) {
+      merge(file);
+
+      CredentialsJournal journal = CredentialsJournal.forSnapshot(file);
+      if (compactionRequired || journal.size() >= Constants.JOURNAL_COMPACTION_THRESHOLD) {
+        platform.info("Saving credentials... " + file.getAbsolutePath());
+        compact(file);
+        return;
+      }
+
+      // entries are taken out before reading the state, a change made meanwhile marks them again
+      List<Field> fields = new ArrayList<>();
+      List<String> keys = new ArrayList<>();
+      List<byte[]> records = new ArrayList<>();
+      if (unsaved.pollField(Field.ENCRYPTION_PASSWORD)) {
+        fields.add(Field.ENCRYPTION_PASSWORD);
+        records.add(CredentialsFormat.password(encryptionPassword));
+      }
+      if (unsaved.pollField(Field.LINKING)) {
+        fields.add(Field.LINKING);
+        records.add(CredentialsFormat.linking(linkedToken, linkedEmail));
       }
+      if (unsaved.pollField(Field.PROFILE_SALT) && profileSalt != null) {
+        fields.add(Field.PROFILE_SALT);
+        records.add(CredentialsFormat.profileSalt(profileSalt));
+      }
+      for (String key : this.keys) {
+        if (unsaved.pollKey(key)) {
+          keys.add(key);
+        }
+      }
+      if (!keys.isEmpty()) {
+        // a key is added before it is marked, so an older one may not be marked yet: all of them
+        // are written in order, the first one read back must stay the main key
+        for (String key : this.keys) {
+          records.add(CredentialsFormat.key(key));
+        }
+      }
+      List<ServerRef> servers = unsaved.pollServers();
+      for (ServerRef ref : servers) {
+        Server server = getUser(ref.getUser()).getServer(ref.getServerId());
+        if (server != null) {
+          records.add(CredentialsFormat.server(ref.getUser(), server));
+          outdatedShards.add(ref.getUser());
+        }
+      }
+      unsaved.pollUsers();
+
+      try {
+        journalPosition = journal.append(records, generation);
+      } catch (IOException e) {
+        // a torn append hides later ones, the full state has to be written next time
+        compactionRequired = true;
+        restore(fields, keys, servers);
+        throw e;
+      }
+      savedSequence = sequence;
+    }
+  }
+
+  /**
+   * Writes a new root snapshot along with the shards of the users modified since the last one.
+   */
+  @SuppressWarnings("try")
+  public void compact(File file) throws IOException {
+    try (CredentialsLock lock = CredentialsLock.acquire(file)) {
+      merge(file);
+
+      long sequence = changes.getSequence();
+      long generation = this.generation + 1;
+      if (shards == null) {
+        shards = UserShards.load(file, this.generation);
+      }
+
+      // everything marked so far is written below, a failure requires another compaction
+      compactionRequired = true;
+      List<Field> fields = new ArrayList<>();
+      List<String> keys = new ArrayList<>();
+      List<ServerRef> servers = unsaved.pollServers();
+      for (ServerRef ref : servers) {
+        outdatedShards.add(ref.getUser());
+      }
+      unsaved.pollUsers();
+      for (Field field : Field.values()) {
+        if (unsaved.pollField(field)) {
+          fields.add(field);
+        }
+      }
+
+      List<byte[]> rootRecords = new ArrayList<>();
+      rootRecords.add(CredentialsFormat.password(encryptionPassword));
+      rootRecords.add(CredentialsFormat.linking(linkedToken, linkedEmail));
+      if (profileSalt != null) {
+        rootRecords.add(CredentialsFormat.profileSalt(profileSalt));
+      }
+      for (String key : this.keys) {
+        if (unsaved.pollKey(key)) {
+          keys.add(key);
+        }
+        rootRecords.add(CredentialsFormat.key(key));
+      }
+
+      List<UUID> modifiedUsers = new ArrayList<>(outdatedShards);
+      try {
+        for (UUID id : modifiedUsers) {
+          List<Server> userServers = new ArrayList<>();
+          getUser(id).forEachServer(userServers::add);
+          shards.write(id, generation, userServers);
+        }
+
+        // the new shards become valid with the root snapshot of their generation
+        IOUtil.writeAtomically(CredentialsSnapshot.path(file, generation),
+            CredentialsSnapshot.write(generation, rootRecords, Collections.emptyMap()));
+      } catch (IOException e) {
+        restore(fields, keys, servers);
+        throw e;
+      }
+      this.generation = generation;
+      compactionRequired = false;
+      savedSequence = sequence;
+
+      // a journal still tagged with the previous generation is ignored if this fails
+      CredentialsJournal.forSnapshot(file).reset();
+      journalPosition = 0;
+
+      // servers not loaded yet are looked up in the new shards from now on
+      for (UUID id : modifiedUsers) {
+        outdatedShards.remove(id);
+        shards.commit(id, generation);
+        getUser(id).snapshot = shards.open(id);
+      }
+      CredentialsSnapshot.deleteOlder(file, generation);
+    }
+  }
+
+  // puts back the entries of a failed write, so that merging changes of other clients keeps them
+  private void restore(List<Field> fields, List<String> keys, List<ServerRef> servers) {
+    fields.forEach(unsaved::markField);
+    keys.forEach(unsaved::markKey);
+    for (ServerRef ref : servers) {
+      unsaved.markServer(ref.getUser(), ref.getServerId());
     }
+  }
 
-    return false;
+  /**
+   * Merges the changes written by other clients since the last read, without a full reload.
+   */
+  @SuppressWarnings("try")
+  public void refresh(File file) throws IOException {
+    try (CredentialsLock lock = CredentialsLock.acquire(file)) {
+      merge(file);
+    }
   }
 
-  private void removeModified() {
-    modified = false;
+  // Changes pending in this client win over the ones read from the store, they are written next
+  private void merge(File file) throws IOException {
+    List<Long> generations = CredentialsSnapshot.generations(file);
+    if (!generations.isEmpty() && generations.get(0) != generation) {
+      // compacted by another client, the new snapshot includes every journal record applied so far
+      openSnapshot(file, generations.get(0));
+    }
+    journalPosition = CredentialsJournal.forSnapshot(file).replay(generation, journalPosition, this::apply);
+  }
+
+  private void openSnapshot(File file, long generation) throws IOException {
+    CredentialsSnapshot root = CredentialsSnapshot.open(CredentialsSnapshot.path(file, generation), this::apply);
+    this.generation = root.getGeneration();
+    this.journalPosition = 0;
+    compactionRequired = false;
+    shards = UserShards.load(file, generation);
+
+    // servers loaded from the previous shards are looked up again
+    outdatedShards.clear();
     for (User user : users.values()) {
-      user.modified = false;
+      user.snapshot = shards.open(user.getId());
+      user.servers.keySet().removeIf(id -> !unsaved.isMarked(user.getId(), id));
     }
   }
 
-  public void save(File file, Platform platform) throws IOException  {
-    if (isModified()) {
-      platform.info("Saving credentials... " + file.getAbsolutePath());
-      String json = Constants.GSON_PRETTY.toJson(serialize(new JsonObject()));
-      @Cleanup PrintWriter writer = new PrintWriter(
-          new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), false);
-      writer.print(json);
-      writer.flush();
-      removeModified();
+  public static boolean exists(File file) throws IOException {
+    return !CredentialsSnapshot.generations(file).isEmpty();
+  }
+
+  /**
+   * Loads the store, or creates it from the JSON file written by previous versions when there is
+   * none yet. The JSON file is left in place, older clients sharing the folder still read it.
+   */
+  @SuppressWarnings("try")
+  public static Credentials load(File file, File legacyFile) throws IOException {
+    try (CredentialsLock lock = CredentialsLock.acquire(file)) {
+      if (exists(file) || !legacyFile.isFile()) {
+        return load(file);
+      }
+
+      Credentials credentials = importJson(legacyFile);
+      credentials.compact(file);
+      return credentials;
+    }
+  }
+
+  /**
+   * Maps the newest root snapshot and replays the journal written on top of it. Users are
+   * loaded from their shards on first access.
+   */
+  @SuppressWarnings("try")
+  public static Credentials load(File file) throws IOException {
+    Credentials credentials = new Credentials();
+    try (CredentialsLock lock = CredentialsLock.acquire(file)) {
+      List<Long> generations = CredentialsSnapshot.generations(file);
+      if (!generations.isEmpty()) {
+        credentials.openSnapshot(file, generations.get(0));
+      } else {
+        credentials.shards = UserShards.load(file, 0);
+      }
+
+      credentials.journalPosition = CredentialsJournal.forSnapshot(file).replay(credentials.generation, 0, credentials::apply);
+    }
+    return credentials;
+  }
+
+  private void apply(byte type, ByteBuffer payload) {
+    switch (type) {
+      case CredentialsFormat.PASSWORD:
+        String encryptionPassword = CredentialsFormat.readString(payload).trim();
+        if (!unsaved.isMarked(Field.ENCRYPTION_PASSWORD) && !encryptionPassword.equals(this.encryptionPassword)) {
+          AES_GCM.KEY_CACHE.invalidate(this.encryptionPassword);
+          this.encryptionPassword = encryptionPassword;
+        }
+        break;
+      case CredentialsFormat.LINKING:
+        String linkedToken = CredentialsFormat.readString(payload);
+        String linkedEmail = CredentialsFormat.readString(payload);
+        if (!unsaved.isMarked(Field.LINKING)) {
+          this.linkedToken = linkedToken;
+          this.linkedEmail = linkedEmail;
+        }
+        break;
+      case CredentialsFormat.PROFILE_SALT:
+        if (!unsaved.isMarked(Field.PROFILE_SALT) && payload.remaining() == AES_GCM.PROFILE_SALT_LENGTH) {
+          byte[] profileSalt = new byte[payload.remaining()];
+          payload.get(profileSalt);
+          this.profileSalt = profileSalt;
+        }
+        break;
+      case CredentialsFormat.KEY:
+        String key = CredentialsFormat.readBase64(payload);
+        keysByFingerprint.putIfAbsent(fingerprint(key), key);
+        keys.add(key);
+        break;
+      case CredentialsFormat.SERVER:
+        User user = getUser(CredentialsFormat.readUUID(payload));
+        Server server = CredentialsFormat.readServer(payload);
+        if (!unsaved.isMarked(user.getId(), server.getId())) {
+          user.servers.put(server.getId(), server);
+        }
+        outdatedShards.add(user.getId());
+        break;
+    }
+  }
+
+  /**
+   * Writes the credentials as readable JSON, passwords included.
+   */
+  public void exportJson(File file) throws IOException {
+    exportJson(file, true);
+  }
+
+  /**
+   * Streams the credentials as JSON straight to the file, without building the document in memory.
+   */
+  public void exportJson(File file, boolean pretty) throws IOException {
+    loadUsers();
+    IOUtil.writeAtomically(file.toPath(), writer -> {
+      JsonWriter out = new JsonWriter(writer);
+      out.setSerializeNulls(false);
+      if (pretty) {
+        out.setIndent("  ");
+      }
+      write(out);
+      out.flush();
+    });
+  }
+
+  /**
+   * Reads credentials written as JSON by previous versions, straight from the file into the model.
+   */
+  @SuppressWarnings("deprecation") // setStrictness needs Gson 2.11, the game ships 2.10.1
+  public static Credentials importJson(File file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        JsonReader in = new JsonReader(new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8)))) {
+      in.setLenient(true);
+      return read(in);
+    } catch (IllegalStateException | NumberFormatException e) {
+      throw new IOException("Malformed credentials file", e);
     }
   }
 
@@ -132,12 +502,17 @@ public class Credentials {
     }
     out.add("linking", linking);
 
+    if (profileSalt != null) {
+      out.addProperty("profile-salt", Base64.getEncoder().encodeToString(profileSalt));
+    }
+
     JsonArray keys = new JsonArray();
     for (String key : this.keys) {
       keys.add(new JsonPrimitive(key));
     }
     out.add("keys", keys);
 
+    loadUsers();
     JsonArray usersJson = new JsonArray();
     for (User user : users.values()) {
       usersJson.add(user.serialize(new JsonObject()));
@@ -147,39 +522,170 @@ public class Credentials {
     return out;
   }
 
+  public void write(JsonWriter out) throws IOException {
+    out.beginObject();
+    out.name("password").value(encryptionPassword);
+
+    out.name("linking").beginObject();
+    if (linkedToken != null) {
+      out.name("token").value(linkedToken);
+      out.name("email").value(linkedEmail);
+    }
+    out.endObject();
+
+    if (profileSalt != null) {
+      out.name("profile-salt").value(Base64.getEncoder().encodeToString(profileSalt));
+    }
+
+    out.name("keys").beginArray();
+    for (String key : keys) {
+      out.value(key);
+    }
+    out.endArray();
+
+    loadUsers();
+    out.name("users").beginArray();
+    for (User user : users.values()) {
+      user.write(out);
+    }
+    out.endArray();
+
+    out.endObject();
+  }
+
+  private void loadUsers() {
+    if (shards != null) {
+      for (UUID id : shards.users()) {
+        getUser(id);
+      }
+    }
+  }
+
+  public static Credentials read(JsonReader in) throws IOException {
+    Credentials credentials = new Credentials();
+    try {
+      if (in.peek() == JsonToken.END_DOCUMENT) {
+        return credentials;
+      }
+    } catch (EOFException e) {
+      // empty file
+      return credentials;
+    }
+
+    in.beginObject();
+    while (in.hasNext()) {
+      switch (in.nextName()) {
+        case "password":
+          credentials.encryptionPassword = in.nextString().trim();
+          break;
+        case "linking":
+          readLinking(in, credentials);
+          break;
+        case "profile-salt":
+          credentials.profileSalt = readProfileSalt(Server.nextString(in));
+          break;
+        case "keys":
+          in.beginArray();
+          while (in.hasNext()) {
+            String key = in.nextString();
+            credentials.keysByFingerprint.putIfAbsent(fingerprint(key), key);
+            credentials.keys.add(key);
+          }
+          in.endArray();
+          break;
+        case "users":
+          in.beginArray();
+          while (in.hasNext()) {
+            User user = User.read(in, credentials.changes);
+            if (user != null) {
+              credentials.users.put(user.getId(), user);
+              // imported from JSON, the first save writes its shard
+              credentials.outdatedShards.add(user.getId());
+            }
+          }
+          in.endArray();
+          break;
+        default:
+          in.skipValue();
+          break;
+      }
+    }
+    in.endObject();
+    return credentials;
+  }
+
+  @Nullable
+  private static byte[] readProfileSalt(@Nullable String base64) {
+    try {
+      byte[] profileSalt = base64 != null ? Base64.getDecoder().decode(base64) : null;
+      return profileSalt != null && profileSalt.length == AES_GCM.PROFILE_SALT_LENGTH ? profileSalt : null;
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  private static void readLinking(JsonReader in, Credentials credentials) throws IOException {
+    String token = null, email = null;
+    in.beginObject();
+    while (in.hasNext()) {
+      switch (in.nextName()) {
+        case "token":
+          token = in.nextString();
+          break;
+        case "email":
+          email = in.nextString();
+          break;
+        default:
+          in.skipValue();
+          break;
+      }
+    }
+    in.endObject();
+
+    if (token != null) {
+      credentials.linkedToken = token;
+      credentials.linkedEmail = email;
+    }
+  }
+
   public static Credentials deserialize(JsonObject in) {
-    String encryptionPassword = in.has("password") ? in.get("password").getAsString().trim() : "";
+    Credentials credentials = new Credentials();
+    credentials.encryptionPassword = in.has("password") ? in.get("password").getAsString().trim() : "";
 
-    String linkedToken = null;
-    String linkedEmail = null;
     if (in.has("linking")) {
       JsonObject linkingJson = in.getAsJsonObject("linking");
       if (linkingJson.has("token")) {
-        linkedToken = linkingJson.get("token").getAsString();
-        linkedEmail = linkingJson.get("email").getAsString();
+        credentials.linkedToken = linkingJson.get("token").getAsString();
+        credentials.linkedEmail = linkingJson.get("email").getAsString();
       }
     }
 
-    Set<String> keys = new LinkedHashSet<>();
+    if (in.has("profile-salt")) {
+      credentials.profileSalt = readProfileSalt(in.get("profile-salt").getAsString());
+    }
+
     if (in.has("keys")) {
       JsonArray keysJson = in.getAsJsonArray("keys");
       for (int i = 0; i < keysJson.size(); i++) {
-        keys.add(keysJson.get(i).getAsJsonPrimitive().getAsString());
+        String key = keysJson.get(i).getAsJsonPrimitive().getAsString();
+        credentials.keysByFingerprint.putIfAbsent(fingerprint(key), key);
+        credentials.keys.add(key);
       }
     }
 
-    Map<UUID, User> users = new HashMap<>();
     if (in.has("users")) {
       JsonArray usersJson = in.getAsJsonArray("users");
       for (int i = 0; i < usersJson.size(); i++) {
         JsonObject userJson = usersJson.get(i).getAsJsonObject();
-        User user = User.deserialize(userJson);
+        User user = User.deserialize(userJson, credentials.changes);
         if (user != null) {
-          users.put(user.getId(), user);
+          credentials.users.put(user.getId(), user);
+          // imported from JSON, the first save writes its shard
+          credentials.outdatedShards.add(user.getId());
         }
       }
     }
 
-    return new Credentials(encryptionPassword, linkedToken, linkedEmail, keys, users, false);
+    return credentials;
   }
 }
@@ -0,0 +1,330 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright © 2024 nLogin Addon Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nickuc.login.addon.core.model;
+
+import com.nickuc.login.addon.core.util.security.SHA256;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.UUID;
+import java.util.zip.CRC32;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Binary layout shared by the credentials snapshot and its journal.
+ * <p>
+ * Both files start with a magic, a version and the snapshot generation, followed by
+ * records of {@code type (1) | payload length (4) | payload | crc32 (4)}. A snapshot holds
+ * the whole state as records and ends with a {@link #COMMIT} record repeating its generation,
+ * see {@link CredentialsSnapshot} for the indexed layout.
+ * Server ids and keys are stored as raw bytes whenever they round-trip to the same text.
+ */
+final class CredentialsFormat {
+
+  static final byte[] SNAPSHOT_MAGIC = {'n', 'L', 'A', 'C'};
+  static final byte[] JOURNAL_MAGIC = {'n', 'L', 'A', 'J'};
+  static final byte SNAPSHOT_VERSION = 2;
+  static final byte JOURNAL_VERSION = 1;
+  static final int HEADER_LENGTH = 4 + 1 + 8;
+
+  static final byte PASSWORD = 1;
+  static final byte LINKING = 2;
+  static final byte KEY = 3;
+  static final byte SERVER = 4;
+  static final byte INDEX = 5;
+  static final byte PROFILE_SALT = 6;
+  static final byte COMMIT = 127;
+
+  // type (1) | length (4), followed by the payload and its crc (4)
+  static final int RECORD_HEADER_LENGTH = 1 + 4;
+  static final int RECORD_OVERHEAD = RECORD_HEADER_LENGTH + 4;
+  static final int ID_LENGTH = 32;
+  private static final byte RAW = 0;
+  private static final byte TEXT = 1;
+
+  interface RecordHandler {
+    void accept(byte type, ByteBuffer payload) throws IOException;
+  }
+
+  static byte[] header(byte[] magic, byte version, long generation) {
+    return ByteBuffer.allocate(HEADER_LENGTH)
+        .put(magic)
+        .put(version)
+        .putLong(generation)
+        .array();
+  }
+
+  /**
+   * @return the generation stored in the header
+   * @throws IOException if the magic or version do not match
+   */
+  static long readHeader(ByteBuffer buffer, byte[] magic, byte expectedVersion) throws IOException {
+    if (buffer.remaining() < HEADER_LENGTH) {
+      throw new IOException("Truncated header");
+    }
+    byte[] actual = new byte[magic.length];
+    buffer.get(actual);
+    if (!Arrays.equals(actual, magic)) {
+      throw new IOException("Unknown file format");
+    }
+    byte version = buffer.get();
+    if (version != expectedVersion) {
+      throw new IOException("Unsupported format version " + version);
+    }
+    return buffer.getLong();
+  }
+
+  /**
+   * Passes every intact record to the handler, stopping at the first truncated or corrupted one.
+   *
+   * @return the position right after the last intact record
+   */
+  static int readRecords(ByteBuffer buffer, RecordHandler handler) throws IOException {
+    CRC32 crc = new CRC32();
+    while (buffer.remaining() >= RECORD_OVERHEAD) {
+      int start = buffer.position();
+      byte type = buffer.get();
+      int length = buffer.getInt();
+      if (length < 0 || length > buffer.remaining() - 4) {
+        buffer.position(start);
+        break;
+      }
+
+      ByteBuffer payload = buffer.slice();
+      payload.limit(length);
+      buffer.position(buffer.position() + length);
+
+      crc.reset();
+      crc.update(buffer.duplicate().position(start).limit(start + RECORD_HEADER_LENGTH + length));
+      if ((int) crc.getValue() != buffer.getInt()) {
+        buffer.position(start);
+        break;
+      }
+
+      try {
+        handler.accept(type, payload);
+      } catch (BufferUnderflowException | IllegalArgumentException e) {
+        throw new IOException("Malformed record of type " + type, e);
+      }
+    }
+    return buffer.position();
+  }
+
+  /**
+   * Reads the record at the given absolute offset, without moving the buffer position.
+   *
+   * @return the payload of the record
+   * @throws IOException if the record is truncated, corrupted or of another type
+   */
+  static ByteBuffer readRecord(ByteBuffer buffer, int offset, byte expectedType) throws IOException {
+    if (offset < 0 || offset > buffer.limit() - RECORD_OVERHEAD) {
+      throw new IOException("Record offset out of bounds: " + offset);
+    }
+    byte type = buffer.get(offset);
+    int length = buffer.getInt(offset + 1);
+    if (type != expectedType || length < 0 || length > buffer.limit() - offset - RECORD_OVERHEAD) {
+      throw new IOException("Unexpected record at offset " + offset);
+    }
+
+    CRC32 crc = new CRC32();
+    crc.update(buffer.slice(offset, RECORD_HEADER_LENGTH + length));
+    if ((int) crc.getValue() != buffer.getInt(offset + RECORD_HEADER_LENGTH + length)) {
+      throw new IOException("Corrupted record at offset " + offset);
+    }
+    return buffer.slice(offset + RECORD_HEADER_LENGTH, length);
+  }
+
+  static byte[] password(String password) {
+    return new Payload().string(password).toRecord(PASSWORD);
+  }
+
+  static byte[] linking(@Nullable String token, @Nullable String email) {
+    return new Payload().string(token).string(email).toRecord(LINKING);
+  }
+
+  static byte[] profileSalt(byte[] salt) {
+    return new Payload().raw(salt).toRecord(PROFILE_SALT);
+  }
+
+  static byte[] key(String key) {
+    return new Payload().base64(key).toRecord(KEY);
+  }
+
+  static byte[] server(UUID user, Server server) {
+    return new Payload()
+        .uuid(user)
+        .hex(server.getId())
+        .base64(server.getEncodedKey())
+        .string(server.getPassword())
+        .toRecord(SERVER);
+  }
+
+  /**
+   * Key under which a server is indexed: the raw id when it is a SHA-256 hex string,
+   * the SHA-256 of the id otherwise.
+   */
+  static byte[] indexKey(String id) {
+    byte[] bytes = rawId(id);
+    return bytes != null ? bytes : SHA256.digest(id.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Nullable
+  private static byte[] rawId(String id) {
+    if (id.length() != ID_LENGTH * 2) {
+      return null;
+    }
+    byte[] bytes = new byte[ID_LENGTH];
+    for (int i = 0; i < bytes.length; i++) {
+      int high = Character.digit(id.charAt(i * 2), 16);
+      int low = Character.digit(id.charAt(i * 2 + 1), 16);
+      if (high < 0 || low < 0) {
+        return null;
+      }
+      bytes[i] = (byte) (high << 4 | low);
+    }
+    // upper case ids would not round-trip
+    return SHA256.toHex(bytes).equals(id) ? bytes : null;
+  }
+
+  @Nullable
+  static String readString(ByteBuffer payload) {
+    int length = payload.getInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    payload.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  static UUID readUUID(ByteBuffer payload) {
+    return new UUID(payload.getLong(), payload.getLong());
+  }
+
+  static String readHex(ByteBuffer payload) {
+    if (payload.get() == TEXT) {
+      return readString(payload);
+    }
+    byte[] id = new byte[ID_LENGTH];
+    payload.get(id);
+    return SHA256.toHex(id);
+  }
+
+  // the payload of a server record, after the user id
+  static Server readServer(ByteBuffer payload) {
+    String id = readHex(payload);
+    String encodedKey = readBase64(payload);
+    String password = readString(payload);
+    return new Server(id, encodedKey, password);
+  }
+
+  static String readBase64(ByteBuffer payload) {
+    if (payload.get() == TEXT) {
+      return readString(payload);
+    }
+    byte[] bytes = new byte[payload.getInt()];
+    payload.get(bytes);
+    return Base64.getEncoder().encodeToString(bytes);
+  }
+
+  static final class Payload extends ByteArrayOutputStream {
+
+    Payload() {
+      super(64);
+    }
+
+    Payload int32(int value) {
+      write(value >>> 24);
+      write(value >>> 16);
+      write(value >>> 8);
+      write(value);
+      return this;
+    }
+
+    Payload int64(long value) {
+      return int32((int) (value >>> 32)).int32((int) value);
+    }
+
+    Payload uuid(UUID uuid) {
+      return int64(uuid.getMostSignificantBits()).int64(uuid.getLeastSignificantBits());
+    }
+
+    Payload raw(byte[] bytes) {
+      write(bytes, 0, bytes.length);
+      return this;
+    }
+
+    Payload string(@Nullable String value) {
+      if (value == null) {
+        return int32(-1);
+      }
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      int32(bytes.length);
+      write(bytes, 0, bytes.length);
+      return this;
+    }
+
+    Payload hex(String value) {
+      byte[] bytes = rawId(value);
+      if (bytes == null) {
+        write(TEXT);
+        return string(value);
+      }
+      write(RAW);
+      write(bytes, 0, bytes.length);
+      return this;
+    }
+
+    Payload base64(String value) {
+      byte[] bytes;
+      try {
+        bytes = Base64.getDecoder().decode(value);
+      } catch (IllegalArgumentException e) {
+        bytes = null;
+      }
+      if (bytes == null || !Base64.getEncoder().encodeToString(bytes).equals(value)) {
+        write(TEXT);
+        return string(value);
+      }
+      write(RAW);
+      int32(bytes.length);
+      write(bytes, 0, bytes.length);
+      return this;
+    }
+
+    byte[] toRecord(byte type) {
+      ByteBuffer record = ByteBuffer.allocate(RECORD_OVERHEAD + count);
+      record.put(type).putInt(count).put(buf, 0, count);
+
+      CRC32 crc = new CRC32();
+      crc.update(record.array(), 0, record.position());
+      return record.putInt((int) crc.getValue()).array();
+    }
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright © 2024 nLogin Addon Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nickuc.login.addon.core.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Append-only log of the changes made since the last snapshot. The header carries the
+ * generation of the snapshot it applies to, so a journal left behind by an interrupted
+ * compaction is discarded on replay.
+ */
+@RequiredArgsConstructor
+final class CredentialsJournal {
+
+  private final Path path;
+
+  static CredentialsJournal forSnapshot(File snapshot) {
+    String name = snapshot.getName();
+    int extension = name.lastIndexOf('.');
+    String base = extension > 0 ? name.substring(0, extension) : name;
+    return new CredentialsJournal(snapshot.toPath().resolveSibling(base + ".journal"));
+  }
+
+  long size() {
+    try {
+      return Files.size(path);
+    } catch (IOException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * @return the length of the journal after the records
+   */
+  long append(List<byte[]> records, long generation) throws IOException {
+    try (FileChannel channel = FileChannel.open(path,
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+      int length = channel.size() == 0 ? CredentialsFormat.HEADER_LENGTH : 0;
+      for (byte[] record : records) {
+        length += record.length;
+      }
+
+      ByteBuffer buffer = ByteBuffer.allocate(length);
+      if (channel.size() == 0) {
+        buffer.put(CredentialsFormat.header(CredentialsFormat.JOURNAL_MAGIC, CredentialsFormat.JOURNAL_VERSION, generation));
+      }
+      for (byte[] record : records) {
+        buffer.put(record);
+      }
+      buffer.flip();
+
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      channel.force(false);
+      return channel.size();
+    }
+  }
+
+  /**
+   * Applies the records written on top of the given snapshot generation, starting at the given
+   * position of the journal (0 for all of them). A torn tail, left by a crash during append, is
+   * cut off so that later appends are not hidden behind it.
+   *
+   * @return the position after the last record, to continue from once other clients append more
+   */
+  long replay(long generation, long position, CredentialsFormat.RecordHandler handler) throws IOException {
+    if (!Files.isRegularFile(path)) {
+      return 0;
+    }
+
+    long end = readRecords(generation, position, handler);
+    if (end < 0) {
+      // a header torn by a crash, or a journal already folded into the snapshot
+      reset();
+      return 0;
+    }
+    return end;
+  }
+
+  // @return the position after the last record, or -1 if the journal was not written on top of the generation
+  private long readRecords(long generation, long position, CredentialsFormat.RecordHandler handler) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      long size = channel.size();
+      if (position > 0 && position == size) {
+        return position;
+      }
+
+      ByteBuffer header = ByteBuffer.allocate(CredentialsFormat.HEADER_LENGTH);
+      readFully(channel, header, 0);
+      header.flip();
+      if (header.remaining() < CredentialsFormat.HEADER_LENGTH
+          || CredentialsFormat.readHeader(header, CredentialsFormat.JOURNAL_MAGIC, CredentialsFormat.JOURNAL_VERSION) != generation) {
+        return -1;
+      }
+
+      long start = Math.max(position, CredentialsFormat.HEADER_LENGTH);
+      if (start > size) {
+        throw new IOException("Credentials journal is shorter than the records already applied");
+      }
+      ByteBuffer content = ByteBuffer.allocate((int) (size - start));
+      readFully(channel, content, start);
+      content.flip();
+
+      long end = start + CredentialsFormat.readRecords(content, handler);
+      if (end < size) {
+        channel.truncate(end);
+      }
+      return end;
+    }
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position);
+      if (read < 0) {
+        break;
+      }
+      position += read;
+    }
+  }
+
+  void reset() throws IOException {
+    Files.deleteIfExists(path);
+  }
+}
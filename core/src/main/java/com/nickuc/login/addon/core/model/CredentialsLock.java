@@ -0,0 +1,142 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright © 2024 nLogin Addon Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nickuc.login.addon.core.model;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLockInterruptionException;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Exclusive lock on the credentials store, which is shared by every client running on the machine.
+ * <p>
+ * File locks are held on behalf of the whole process, so threads are serialized by a local lock
+ * first. It is reentrant: a save holding the lock may compact. Callers only hold it as the
+ * resource of a try-with-resources block.
+ * <p>
+ * Another client may hold the file lock for a while, or hang while holding it, so it is only
+ * waited for up to {@link #LOCK_TIMEOUT_MILLIS}.
+ */
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+final class CredentialsLock implements Closeable {
+
+  private static final long LOCK_TIMEOUT_MILLIS = 2000;
+  private static final long LOCK_RETRY_MILLIS = 20;
+  private static final ReentrantLock LOCAL_LOCK = new ReentrantLock();
+  private static final Logger LOGGER = System.getLogger(CredentialsLock.class.getName());
+  private static volatile boolean unlockedWarned;
+
+  private final @Nullable FileChannel channel; // null when nested or when locking is not supported
+
+  static CredentialsLock acquire(File base) throws IOException {
+    LOCAL_LOCK.lock();
+    if (LOCAL_LOCK.getHoldCount() > 1) {
+      return new CredentialsLock(null);
+    }
+
+    String name = base.getName();
+    int extension = name.lastIndexOf('.');
+    String lockName = (extension > 0 ? name.substring(0, extension) : name) + ".lock";
+
+    FileChannel channel = null;
+    boolean locked;
+    try {
+      channel = FileChannel.open(base.toPath().resolveSibling(lockName),
+          StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+      locked = tryLock(channel);
+    } catch (FileLockInterruptionException | ClosedChannelException e) {
+      close(channel);
+      LOCAL_LOCK.unlock();
+      throw e;
+    } catch (IOException | UnsupportedOperationException e) {
+      // e.g. network file systems without lock support, still usable by a single client
+      close(channel);
+      if (!unlockedWarned) {
+        unlockedWarned = true;
+        LOGGER.log(Level.WARNING, "Cannot lock " + lockName + ", other clients may overwrite the credentials", e);
+      }
+      return new CredentialsLock(null);
+    } catch (RuntimeException e) {
+      close(channel);
+      LOCAL_LOCK.unlock();
+      throw e;
+    }
+
+    if (!locked) {
+      close(channel);
+      LOCAL_LOCK.unlock();
+      throw new IOException("Timed out waiting for another client to release " + lockName);
+    }
+    return new CredentialsLock(channel);
+  }
+
+  private static boolean tryLock(FileChannel channel) throws IOException {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(LOCK_TIMEOUT_MILLIS);
+    while (channel.tryLock() == null) {
+      if (System.nanoTime() - deadline >= 0) {
+        return false;
+      }
+
+      try {
+        Thread.sleep(LOCK_RETRY_MILLIS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new FileLockInterruptionException();
+      }
+    }
+    return true;
+  }
+
+  // closing the channel releases the file lock
+  @Override
+  public void close() throws IOException {
+    try {
+      if (channel != null) {
+        channel.close();
+      }
+    } finally {
+      LOCAL_LOCK.unlock();
+    }
+  }
+
+  private static void close(@Nullable FileChannel channel) {
+    if (channel != null) {
+      try {
+        channel.close();
+      } catch (IOException ignored) {
+      }
+    }
+  }
+}
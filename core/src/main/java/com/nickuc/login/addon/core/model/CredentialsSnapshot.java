@@ -0,0 +1,257 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright © 2024 nLogin Addon Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nickuc.login.addon.core.model;
+
+import com.nickuc.login.addon.core.model.CredentialsFormat.Payload;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Read-only, memory-mapped credentials snapshot. Servers are decoded only when looked up.
+ * <p>
+ * Layout: header, root records (password, linking, keys), server records grouped by user and
+ * sorted by {@link CredentialsFormat#indexKey(String)}, an {@link CredentialsFormat#INDEX} record
+ * listing for each user the sorted {@code key (32) | record offset (4)} entries, and a fixed size
+ * {@link CredentialsFormat#COMMIT} record holding the generation and the section offsets.
+ * <p>
+ * Each generation is written to its own file, a mapped file cannot be replaced on every platform.
+ */
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+final class CredentialsSnapshot {
+
+  private static final int COMMIT_LENGTH = CredentialsFormat.RECORD_OVERHEAD + 8 + 4 + 4;
+  private static final int ENTRY_LENGTH = CredentialsFormat.ID_LENGTH + 4;
+  private static final Logger LOGGER = System.getLogger(CredentialsSnapshot.class.getName());
+
+  private final Path path;
+  private final ByteBuffer buffer;
+  private final @Getter long generation;
+  private final Map<UUID, Segment> users;
+
+  static Path path(File base, long generation) {
+    String name = base.getName();
+    int extension = name.lastIndexOf('.');
+    return base.toPath().resolveSibling(name.substring(0, extension) + '.' + generation + name.substring(extension));
+  }
+
+  /**
+   * @return the generations found next to the base file, newest first
+   */
+  static List<Long> generations(File base) throws IOException {
+    String name = base.getName();
+    int extension = name.lastIndexOf('.');
+    Pattern pattern = Pattern.compile(Pattern.quote(name.substring(0, extension)) + "\\.(\\d+)"
+        + Pattern.quote(name.substring(extension)));
+
+    List<Long> generations = new ArrayList<>();
+    Path directory = base.toPath().toAbsolutePath().getParent();
+    if (Files.isDirectory(directory)) {
+      try (Stream<Path> files = Files.list(directory)) {
+        files.forEach(file -> {
+          Matcher matcher = pattern.matcher(file.getFileName().toString());
+          if (matcher.matches()) {
+            generations.add(Long.parseLong(matcher.group(1)));
+          }
+        });
+      }
+    }
+    generations.sort(Comparator.reverseOrder());
+    return generations;
+  }
+
+  // may fail while a previous generation is still mapped, it is retried after the next compaction
+  static void deleteOlder(File base, long generation) throws IOException {
+    for (long older : generations(base)) {
+      if (older < generation) {
+        try {
+          Files.deleteIfExists(path(base, older));
+        } catch (IOException ignored) {
+        }
+      }
+    }
+  }
+
+  static byte[] write(long generation, List<byte[]> rootRecords, Map<UUID, Collection<Server>> servers) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.writeBytes(CredentialsFormat.header(CredentialsFormat.SNAPSHOT_MAGIC, CredentialsFormat.SNAPSHOT_VERSION, generation));
+    for (byte[] record : rootRecords) {
+      out.writeBytes(record);
+    }
+
+    int serversOffset = out.size();
+    Payload index = new Payload().int32(servers.size());
+    for (Entry<UUID, Collection<Server>> user : servers.entrySet()) {
+      List<Entry<byte[], Server>> sorted = new ArrayList<>(user.getValue().size());
+      for (Server server : user.getValue()) {
+        sorted.add(new SimpleImmutableEntry<>(CredentialsFormat.indexKey(server.getId()), server));
+      }
+      sorted.sort((a, b) -> Arrays.compareUnsigned(a.getKey(), b.getKey()));
+
+      index.uuid(user.getKey()).int32(sorted.size());
+      for (Entry<byte[], Server> entry : sorted) {
+        index.raw(entry.getKey()).int32(out.size());
+        out.writeBytes(CredentialsFormat.server(user.getKey(), entry.getValue()));
+      }
+    }
+
+    int indexOffset = out.size();
+    out.writeBytes(index.toRecord(CredentialsFormat.INDEX));
+    out.writeBytes(new Payload()
+        .int64(generation)
+        .int32(serversOffset)
+        .int32(indexOffset)
+        .toRecord(CredentialsFormat.COMMIT));
+    return out.toByteArray();
+  }
+
+  /**
+   * Maps the snapshot and passes its root records to the handler.
+   *
+   * @throws IOException if the snapshot is torn or corrupted
+   */
+  static CredentialsSnapshot open(Path path, CredentialsFormat.RecordHandler rootHandler) throws IOException {
+    ByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+    }
+
+    long generation = CredentialsFormat.readHeader(buffer.duplicate(), CredentialsFormat.SNAPSHOT_MAGIC,
+        CredentialsFormat.SNAPSHOT_VERSION);
+    if (buffer.limit() < CredentialsFormat.HEADER_LENGTH + COMMIT_LENGTH) {
+      throw new IOException("Torn credentials snapshot " + path);
+    }
+
+    ByteBuffer commit = CredentialsFormat.readRecord(buffer, buffer.limit() - COMMIT_LENGTH, CredentialsFormat.COMMIT);
+    if (commit.getLong() != generation) {
+      throw new IOException("Torn credentials snapshot " + path + ", generation " + generation + " was not committed");
+    }
+    int serversOffset = commit.getInt();
+    int indexOffset = commit.getInt();
+
+    ByteBuffer root = buffer.duplicate().position(CredentialsFormat.HEADER_LENGTH).limit(serversOffset);
+    if (CredentialsFormat.readRecords(root, rootHandler) != serversOffset) {
+      throw new IOException("Corrupted credentials snapshot " + path);
+    }
+
+    ByteBuffer index = CredentialsFormat.readRecord(buffer, indexOffset, CredentialsFormat.INDEX);
+    int indexStart = indexOffset + CredentialsFormat.RECORD_HEADER_LENGTH;
+    int userCount = index.getInt();
+    Map<UUID, Segment> users = new HashMap<>(userCount * 2);
+    for (int i = 0; i < userCount; i++) {
+      UUID user = CredentialsFormat.readUUID(index);
+      int count = index.getInt();
+      users.put(user, new Segment(indexStart + index.position(), count));
+      index.position(index.position() + count * ENTRY_LENGTH);
+    }
+
+    return new CredentialsSnapshot(path, buffer, generation, users);
+  }
+
+  @Nullable
+  Server find(UUID user, String id) {
+    Segment segment = users.get(user);
+    if (segment == null) {
+      return null;
+    }
+
+    byte[] key = CredentialsFormat.indexKey(id);
+    byte[] candidate = new byte[CredentialsFormat.ID_LENGTH];
+    int low = 0;
+    int high = segment.count - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      int entry = segment.offset + middle * ENTRY_LENGTH;
+      buffer.get(entry, candidate);
+
+      int compare = Arrays.compareUnsigned(candidate, key);
+      if (compare < 0) {
+        low = middle + 1;
+      } else if (compare > 0) {
+        high = middle - 1;
+      } else {
+        return readServer(buffer.getInt(entry + CredentialsFormat.ID_LENGTH));
+      }
+    }
+    return null;
+  }
+
+  void forEach(UUID user, Consumer<Server> action) {
+    Segment segment = users.get(user);
+    if (segment != null) {
+      for (int i = 0; i < segment.count; i++) {
+        Server server = readServer(buffer.getInt(segment.offset + i * ENTRY_LENGTH + CredentialsFormat.ID_LENGTH));
+        if (server != null) {
+          action.accept(server);
+        }
+      }
+    }
+  }
+
+  @Nullable
+  private Server readServer(int offset) {
+    try {
+      ByteBuffer payload = CredentialsFormat.readRecord(buffer, offset, CredentialsFormat.SERVER);
+      CredentialsFormat.readUUID(payload);
+      return CredentialsFormat.readServer(payload);
+    } catch (Exception e) {
+      LOGGER.log(Level.WARNING, "Skipping corrupted server record at offset " + offset + " of " + path, e);
+      return null;
+    }
+  }
+
+  @RequiredArgsConstructor
+  private static final class Segment {
+
+    private final int offset;
+    private final int count;
+  }
+}
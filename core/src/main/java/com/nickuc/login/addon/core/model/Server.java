@@ -25,37 +25,120 @@
 package com.nickuc.login.addon.core.model;
 
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 import com.nickuc.login.addon.core.util.security.RSA;
 import com.nickuc.login.addon.core.util.security.SHA256;
+import java.io.IOException;
 import java.security.PublicKey;
 import java.util.Base64;
-import lombok.AccessLevel;
-import lombok.AllArgsConstructor;
 import lombok.Getter;
 import org.jetbrains.annotations.Nullable;
 
-@AllArgsConstructor(access = AccessLevel.PACKAGE)
 @Getter
 public class Server {
 
   private final String id;
-  private final PublicKey key;
-  String password;
+  private final String encodedKey; // base64 X.509 public key
+  private volatile PublicKey key;
+  volatile String password;
+
+  Server(String id, PublicKey key, String password) {
+    this(id, Base64.getEncoder().encodeToString(key.getEncoded()), password);
+    this.key = key;
+  }
+
+  Server(String id, String encodedKey, String password) {
+    this.id = id;
+    this.encodedKey = encodedKey;
+    this.password = password;
+  }
+
+  // Decoded only on first use, most stored servers are never joined in a session
+  @Nullable
+  public PublicKey getKey() {
+    PublicKey key = this.key;
+    if (key == null) {
+      this.key = key = RSA.getPublicKeyFromBase64(encodedKey);
+    }
+    return key;
+  }
 
   public JsonObject serialize(JsonObject out) {
-    out.addProperty("key", Base64.getEncoder().encodeToString(key.getEncoded()));
+    out.addProperty("key", encodedKey);
     out.addProperty("password", password);
     return out;
   }
 
+  public void write(JsonWriter out) throws IOException {
+    out.beginObject();
+    out.name("key").value(encodedKey);
+    out.name("password").value(password);
+    out.endObject();
+  }
+
+  @Nullable
+  public static Server read(JsonReader in) throws IOException {
+    if (in.peek() != JsonToken.BEGIN_OBJECT) {
+      in.skipValue();
+      return null;
+    }
+
+    String encodedKey = null, password = null;
+    in.beginObject();
+    while (in.hasNext()) {
+      switch (in.nextName()) {
+        case "key":
+          encodedKey = nextString(in);
+          break;
+        case "password":
+          password = nextString(in);
+          break;
+        default:
+          in.skipValue();
+          break;
+      }
+    }
+    in.endObject();
+
+    if (encodedKey == null || password == null) {
+      return null;
+    }
+    try {
+      return new Server(keyId(encodedKey), encodedKey, password);
+    } catch (IllegalArgumentException e) {
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  // the id binds the password to the key, so it is never taken from the (possibly remote) input
+  private static String keyId(String encodedKey) {
+    return SHA256.hash(Base64.getDecoder().decode(encodedKey));
+  }
+
+  // null when the value is not a primitive, so a broken entry is skipped instead of failing the file
+  @Nullable
+  static String nextString(JsonReader in) throws IOException {
+    switch (in.peek()) {
+      case STRING:
+      case NUMBER:
+        return in.nextString();
+      case BOOLEAN:
+        return String.valueOf(in.nextBoolean());
+      default:
+        in.skipValue();
+        return null;
+    }
+  }
+
   @Nullable
   public static Server deserialize(JsonObject in) {
     try {
-      byte[] encodedKey = Base64.getDecoder().decode(in.get("key").getAsString());
-      String id = SHA256.hash(encodedKey);
+      String encodedKey = in.get("key").getAsString();
       String password = in.get("password").getAsString();
-      PublicKey key = RSA.getPublicKeyFromBytes(encodedKey);
-      return new Server(id, key, password);
+      return new Server(keyId(encodedKey), encodedKey, password);
     } catch (Exception e) {
       e.printStackTrace();
       return null;
@@ -25,7 +25,7 @@
 package com.nickuc.login.addon.core.model;
 
 import com.nickuc.login.addon.core.packet.incoming.IncomingReadyPacket;
-import com.nickuc.login.addon.core.util.security.SHA256;
+import com.nickuc.login.addon.core.util.security.RSA;
 import java.security.PublicKey;
 import java.util.UUID;
 import lombok.Getter;
@@ -53,8 +53,9 @@ public class Session {
   }
 
   public void init(IncomingReadyPacket packet) {
-    this.serverId = SHA256.hash(packet.getKey().getEncoded());
+    PublicKey key = packet.getKey();
+    this.serverId = key != null ? RSA.getKeyId(key) : null;
     this.userId = packet.getUserId();
-    this.serverKey = packet.getKey();
+    this.serverKey = key;
   }
 }
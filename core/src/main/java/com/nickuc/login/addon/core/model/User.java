@@ -26,10 +26,15 @@ package com.nickuc.login.addon.core.model;
 
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.security.PublicKey;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
@@ -39,28 +44,57 @@ import org.jetbrains.annotations.Nullable;
 public class User {
 
   private @Getter final UUID id;
-  private final Map<String, Server> servers;
-  @Getter volatile boolean modified;
+  final Map<String, Server> servers;
+  private final ChangeTracker changes;
+  volatile @Nullable CredentialsSnapshot snapshot; // servers not loaded yet
 
   public Server updateServer(String id, PublicKey key, String password) {
-    Server server = getServer(id);
-    if (server != null) {
-      server.password = password;
-    } else {
-      servers.put(id, server = new Server(id, key, password));
-    }
-    modified = true;
+    CredentialsSnapshot snapshot = this.snapshot;
+    // atomic per server, concurrent updates of other servers are not blocked
+    Server server = servers.compute(id, (serverId, current) -> {
+      if (current == null && snapshot != null) {
+        current = snapshot.find(this.id, serverId);
+      }
+      if (current == null) {
+        return new Server(serverId, key, password);
+      }
+      current.password = password;
+      return current;
+    });
+    changes.markServer(this.id, id);
     return server;
   }
 
   public void updateServer(Server server) {
     servers.put(server.getId(), server);
-    modified = true;
+    changes.markServer(id, server.getId());
   }
 
   @Nullable
   public Server getServer(String id) {
-    return servers.get(id);
+    Server server = servers.get(id);
+    CredentialsSnapshot snapshot = this.snapshot;
+    if (server == null && snapshot != null && (server = snapshot.find(this.id, id)) != null) {
+      // decoded by another thread meanwhile, the first one is kept so that updates are not lost
+      Server current = servers.putIfAbsent(id, server);
+      if (current != null) {
+        server = current;
+      }
+    }
+    return server;
+  }
+
+  // Visits every server without loading the ones still in the snapshot
+  void forEachServer(Consumer<Server> action) {
+    servers.values().forEach(action);
+    CredentialsSnapshot snapshot = this.snapshot;
+    if (snapshot != null) {
+      snapshot.forEach(id, server -> {
+        if (!servers.containsKey(server.getId())) {
+          action.accept(server);
+        }
+      });
+    }
   }
 
   @Nullable
@@ -68,20 +102,78 @@ public class User {
     out.addProperty("id", id.toString());
 
     JsonArray serversJson = new JsonArray();
-    for (Server server : servers.values()) {
-      serversJson.add(server.serialize(new JsonObject()));
-    }
+    forEachServer(server -> serversJson.add(server.serialize(new JsonObject())));
     out.add("servers", serversJson);
 
     return out;
   }
 
+  public void write(JsonWriter out) throws IOException {
+    out.beginObject();
+    out.name("id").value(id.toString());
+
+    out.name("servers").beginArray();
+    try {
+      forEachServer(server -> {
+        try {
+          server.write(out);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    out.endArray();
+
+    out.endObject();
+  }
+
+  @Nullable
+  static User read(JsonReader in, ChangeTracker changes) throws IOException {
+    String id = null;
+    Map<String, Server> servers = null;
+    in.beginObject();
+    while (in.hasNext()) {
+      switch (in.nextName()) {
+        case "id":
+          id = Server.nextString(in);
+          break;
+        case "servers":
+          servers = new ConcurrentHashMap<>();
+          in.beginArray();
+          while (in.hasNext()) {
+            Server server = Server.read(in);
+            if (server != null) {
+              servers.put(server.getId(), server);
+            }
+          }
+          in.endArray();
+          break;
+        default:
+          in.skipValue();
+          break;
+      }
+    }
+    in.endObject();
+
+    if (id == null || servers == null) {
+      return null;
+    }
+    try {
+      return new User(UUID.fromString(id), servers, changes);
+    } catch (IllegalArgumentException e) {
+      e.printStackTrace();
+      return null;
+    }
+  }
+
   @Nullable
-  static User deserialize(JsonObject in) {
+  static User deserialize(JsonObject in, ChangeTracker changes) {
     try {
       JsonArray serversJson = in.getAsJsonArray("servers");
 
-      Map<String, Server> servers = new HashMap<>();
+      Map<String, Server> servers = new ConcurrentHashMap<>();
       for (int i = 0; i < serversJson.size(); i++) {
         JsonObject serverJson = serversJson.get(i).getAsJsonObject();
         Server server = Server.deserialize(serverJson);
@@ -90,7 +182,7 @@ public class User {
         }
       }
 
-      return new User(UUID.fromString(in.get("id").getAsString()), servers);
+      return new User(UUID.fromString(in.get("id").getAsString()), servers, changes);
     } catch (Exception e) {
       e.printStackTrace();
       return null;
@@ -0,0 +1,131 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright © 2024 nLogin Addon Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nickuc.login.addon.core.model;
+
+import com.nickuc.login.addon.core.util.io.IOUtil;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Directory of per-user snapshots, {@code users/<uuid>.<generation>.dat}. A shard is only valid up
+ * to the generation of the root snapshot, newer ones are left behind by an interrupted compaction.
+ */
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+final class UserShards {
+
+  private static final Pattern FILE_NAME = Pattern.compile(
+      "([0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12})\\.(\\d+)\\.dat");
+
+  private final Path directory;
+  private final Map<UUID, Long> generations; // committed by the saving thread, opened by any
+
+  /**
+   * Lists the newest shard of every user and removes the ones that are superseded or invalid.
+   */
+  static UserShards load(File base, long generation) throws IOException {
+    Path directory = base.toPath().resolveSibling("users");
+    Map<UUID, Long> generations = new ConcurrentHashMap<>();
+    if (Files.isDirectory(directory)) {
+      List<Path> files;
+      try (Stream<Path> list = Files.list(directory)) {
+        files = list.collect(Collectors.toList());
+      }
+
+      for (Path file : files) {
+        Matcher matcher = FILE_NAME.matcher(file.getFileName().toString());
+        if (matcher.matches()) {
+          long shardGeneration = Long.parseLong(matcher.group(2));
+          if (shardGeneration <= generation) {
+            generations.merge(UUID.fromString(matcher.group(1)), shardGeneration, Math::max);
+          }
+        }
+      }
+
+      for (Path file : files) {
+        Matcher matcher = FILE_NAME.matcher(file.getFileName().toString());
+        if (matcher.matches()
+            && Long.parseLong(matcher.group(2)) != generations.getOrDefault(UUID.fromString(matcher.group(1)), -1L)) {
+          delete(file);
+        }
+      }
+    }
+    return new UserShards(directory, generations);
+  }
+
+  Set<UUID> users() {
+    return Collections.unmodifiableSet(generations.keySet());
+  }
+
+  @Nullable
+  CredentialsSnapshot open(UUID user) throws IOException {
+    Long generation = generations.get(user);
+    return generation != null ? CredentialsSnapshot.open(path(user, generation), (type, payload) -> {}) : null;
+  }
+
+  void write(UUID user, long generation, Collection<Server> servers) throws IOException {
+    Files.createDirectories(directory);
+    IOUtil.writeAtomically(path(user, generation), CredentialsSnapshot.write(generation, Collections.emptyList(),
+        Collections.singletonMap(user, servers)));
+  }
+
+  /**
+   * Makes the shard written for the given generation the current one, once the root snapshot
+   * of that generation is committed.
+   */
+  void commit(UUID user, long generation) {
+    Long previous = generations.put(user, generation);
+    if (previous != null && previous != generation) {
+      delete(path(user, previous));
+    }
+  }
+
+  private Path path(UUID user, long generation) {
+    return directory.resolve(user + "." + generation + ".dat");
+  }
+
+  // may fail while the file is still mapped, it is retried on the next start
+  private static void delete(Path file) {
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException ignored) {
+    }
+  }
+}
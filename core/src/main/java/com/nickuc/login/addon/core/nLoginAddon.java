@@ -24,27 +24,23 @@
 
 package com.nickuc.login.addon.core;
 
-import com.google.gson.JsonObject;
 import com.nickuc.login.addon.core.handler.EventHandler;
 import com.nickuc.login.addon.core.handler.PacketHandler;
 import com.nickuc.login.addon.core.i18n.Message;
 import com.nickuc.login.addon.core.manager.LinkManager;
-import com.nickuc.login.addon.core.manager.LinkManager.SyncResponse;
 import com.nickuc.login.addon.core.manager.SessionManager;
+import com.nickuc.login.addon.core.manager.SyncScheduler;
 import com.nickuc.login.addon.core.model.Credentials;
 import com.nickuc.login.addon.core.packet.PacketRegistry;
 import com.nickuc.login.addon.core.platform.Platform;
 import com.nickuc.login.addon.core.platform.Settings;
-import com.nickuc.login.addon.core.util.io.IOUtil;
+import com.nickuc.login.addon.core.util.concurrent.CryptoExecutor;
+import com.nickuc.login.addon.core.util.concurrent.DebouncedTask;
+import com.nickuc.login.addon.core.util.concurrent.Scheduler;
+import com.nickuc.login.addon.core.util.security.SecureGenerator;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
 import javax.swing.filechooser.FileSystemView;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
@@ -52,71 +48,129 @@ import lombok.RequiredArgsConstructor;
 @RequiredArgsConstructor
 public class nLoginAddon {
 
+  private static final int CREDENTIALS_READ_ATTEMPTS = 3;
+  private static final long CREDENTIALS_READ_RETRY_MILLIS = 50;
+  private static final int SCHEDULER_THREADS = 2;
+  private static final int CRYPTO_THREADS = 2;
+  private static final int CRYPTO_MAX_QUEUED = 32;
+  private static final long SHUTDOWN_TIMEOUT_SECONDS = 5;
+
   private final Platform platform;
   private final @Getter SessionManager sessionManager = new SessionManager();
+  private @Getter CryptoExecutor cryptoExecutor;
   private @Getter Credentials credentials;
+  private File credentialsFile;
+  private @Getter Scheduler scheduler;
+  private DebouncedTask saveTask;
+  private SyncScheduler syncScheduler;
+  private Runnable saveListener;
+  private Thread shutdownHook;
 
   public void enable() {
-    File credentialsFile = loadCredentials();
+    credentialsFile = loadCredentials();
+    scheduler = new Scheduler("nLogin Addon Scheduler", SCHEDULER_THREADS);
+    cryptoExecutor = new CryptoExecutor(CRYPTO_THREADS, CRYPTO_MAX_QUEUED);
+    SecureGenerator.startPools(this::error);
 
     PacketHandler packetHandler = new PacketHandler(this, platform, credentials);
     PacketRegistry packetRegistry = new PacketRegistry(packetHandler);
     LinkManager linkManager = new LinkManager(this, platform, credentials);
     platform.registerEvents(new EventHandler(this, platform, packetRegistry));
 
+    saveTask = new DebouncedTask(scheduler, "save", () -> {
+      if (!platform.isEnabled()) {
+        return;
+      }
+
+      try {
+        credentials.save(credentialsFile, platform);
+      } catch (Throwable t) {
+        error("Cannot save credentials to " + credentialsFile.getAbsolutePath(), t);
+      }
+    }, Constants.SAVE_QUIET_PERIOD_MILLIS, Constants.SAVE_MAX_DELAY_MILLIS);
+    saveListener = saveTask::signal;
+    credentials.getChanges().addListener(saveListener);
+    shutdownHook = new Thread(saveTask::close, "nLogin Addon Shutdown");
+    Runtime.getRuntime().addShutdownHook(shutdownHook);
+    if (credentials.isModified()) {
+      saveTask.signal();
+    }
+
     getSettings().init(
         credentials.getEncryptionPassword(),
         linkManager::linkAccount,
-        linkManager::unlinkAccount);
-
-    final AtomicInteger shouldSync = new AtomicInteger(0);
-    final AtomicBoolean firstRun = new AtomicBoolean(true);
-
-    Timer syncTimer = new Timer("nLogin Addon Sync Timer");
-    syncTimer.scheduleAtFixedRate(new TimerTask() {
-      @Override
-      public void run() {
-        try {
-          String linkedToken = credentials.getLinkedToken();
-          if (shouldSync.incrementAndGet() == 3 && linkedToken != null) {
-            SyncResponse syncResponse = linkManager.sync(linkedToken, credentials.getLinkedEmail());
-            platform.info("Remote Sync response: " + syncResponse);
-
-            if (!firstRun.getAndSet(false) || !syncResponse.equals(SyncResponse.VALID_RESPONSE)) {
-              platform.showNotification(syncResponse.equals(SyncResponse.VALID_RESPONSE) ?
-                  Message.NOTIFICATION_SYNC_SUCCESS.toText(platform) :
-                  Message.NOTIFICATION_SYNC_FAILED.toText(platform, syncResponse.getMessage(platform)));
-            }
-          }
-        } catch (Throwable t) {
-          error("Cannot sync backup data remotely", t);
-        }
-      }
-    }, 0, TimeUnit.SECONDS.toMillis(1));
-
-    Timer saveTimer = new Timer("nLogin Addon Save Timer");
-    saveTimer.scheduleAtFixedRate(new TimerTask() {
-      @Override
-      public void run() {
-        try {
-          String encryptionPassword = getSettings().getEncryptionPassword();
+        linkManager::unlinkAccount,
+        this::exportCredentials,
+        encryptionPassword -> {
           if (encryptionPassword != null && !encryptionPassword.trim().equals(credentials.getEncryptionPassword())) {
             credentials.setEncryptionPassword(encryptionPassword);
-            shouldSync.set(1);
           }
+        });
 
-          if (platform.isEnabled()) {
-            try {
-              credentials.save(credentialsFile, platform);
-            } catch (Exception e) {
-              error("Cannot save credentials to " + credentialsFile.getAbsolutePath(), e);
-            }
-          }
-        } catch (Throwable t) {
-          error("Cannot handle save timer", t);
-        }
+    syncScheduler = new SyncScheduler(this, platform, credentials, linkManager, scheduler);
+    syncScheduler.start();
+  }
+
+  /**
+   * Writes the pending changes and stops the background work started by {@link #enable()}.
+   */
+  public void disable() {
+    if (scheduler == null) {
+      return;
+    }
+
+    try {
+      Runtime.getRuntime().removeShutdownHook(shutdownHook);
+    } catch (IllegalStateException ignored) {
+      // already shutting down, the hook drains the saves
+    }
+    syncScheduler.stop();
+    credentials.getChanges().removeListener(saveListener);
+    saveTask.close();
+
+    SecureGenerator.stopPools();
+    cryptoExecutor.shutdown();
+
+    debug("Scheduler: " + scheduler.stats());
+    if (!scheduler.shutdown(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+      platform.info("Background tasks still running after " + SHUTDOWN_TIMEOUT_SECONDS + "s, leaving them behind");
+    }
+    scheduler = null;
+  }
+
+  /**
+   * Reads the passwords other clients on this machine stored since the last read, off the client
+   * thread since the store may be locked by them, then runs {@code then} on the client thread.
+   */
+  public void refreshCredentials(Runnable then) {
+    scheduler.execute("refresh", () -> {
+      try {
+        credentials.refresh(credentialsFile);
+      } catch (Throwable t) {
+        error("Cannot read credentials from " + credentialsFile.getAbsolutePath(), t);
+      }
+      platform.runOnClientThread(then);
+    });
+  }
+
+  public void flushCredentials() {
+    if (saveTask != null) {
+      saveTask.flush();
+    }
+  }
+
+  // passwords are written as plain text, so only on request from the settings
+  private void exportCredentials() {
+    File file = new File(credentialsFile.getParentFile(), "credentials.export.json");
+    scheduler.execute("export", () -> {
+      try {
+        credentials.exportJson(file);
+        platform.runOnClientThread(() -> Message.CREDENTIALS_EXPORTED.display(platform, file.getAbsolutePath()));
+      } catch (Throwable t) {
+        error("Cannot export credentials to " + file.getAbsolutePath(), t);
+        platform.runOnClientThread(() -> Message.CREDENTIALS_EXPORT_FAILED.display(platform, t.getMessage()));
       }
-    }, 0, TimeUnit.SECONDS.toMillis(1));
+    });
   }
 
   public Settings getSettings() {
@@ -143,27 +197,44 @@ public class nLoginAddon {
       }
     }
 
-    File file = new File(folder, "credentials.json");
-    JsonObject json;
+    File file = new File(folder, "credentials.dat");
+    File legacyFile = new File(folder, "credentials.json");
     try {
-      if (file.exists() ? !file.isFile() : !file.createNewFile()) {
-        throw new SecurityException("Cannot access/create credentials file: " + file.getAbsolutePath());
+      if (file.exists() && !file.isFile()) {
+        throw new SecurityException("Cannot access credentials file: " + file.getAbsolutePath());
       }
 
-      String content;
-      try (FileInputStream fileInputStream = new FileInputStream(file)) {
-        content = new String(IOUtil.readAll(fileInputStream), StandardCharsets.UTF_8);
+      if (legacyFile.isFile() && !Credentials.exists(file)) {
+        platform.info("Importing credentials from " + legacyFile.getAbsolutePath());
       }
-
-      json = !content.isEmpty() ? Constants.GSON.fromJson(content, JsonObject.class) : new JsonObject();
+      credentials = readCredentials(file, legacyFile);
     } catch (IOException e) {
       throw new RuntimeException("Cannot read/create credentials file: " + file.getAbsolutePath(), e);
     }
 
-    credentials = Credentials.deserialize(json);
     return file;
   }
 
+  private Credentials readCredentials(File file, File legacyFile) throws IOException {
+    for (int attempt = 1; ; attempt++) {
+      try {
+        return Credentials.load(file, legacyFile);
+      } catch (IOException e) {
+        if (attempt >= CREDENTIALS_READ_ATTEMPTS) {
+          throw e;
+        }
+      }
+
+      // another instance may be replacing the file right now
+      try {
+        Thread.sleep(CREDENTIALS_READ_RETRY_MILLIS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while reading credentials", e);
+      }
+    }
+  }
+
   public void error(String message, Throwable t) {
     platform.error(message, t);
     if (getSettings().isDebug()) {
@@ -29,6 +29,7 @@ import com.nickuc.login.addon.core.packet.IncomingPacket;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.ToString;
+import org.jetbrains.annotations.Nullable;
 
 @NoArgsConstructor
 @Getter
@@ -37,10 +38,12 @@ public class IncomingSyncDataPacket implements IncomingPacket {
 
   private String data; // encrypted with Zero-Knowledge Encryption
   private String checksum;
+  private @Nullable String keyId; // absent on data uploaded by older clients
 
   @Override
   public void read(JsonObject in) {
     data = in.get("data").getAsString();
     checksum = in.get("checksum").getAsString();
+    keyId = in.has("key-id") ? in.get("key-id").getAsString() : null;
   }
 }
@@ -35,11 +35,13 @@ public class OutgoingSyncDataPacket implements OutgoingPacket {
 
   private final String data; // encrypted with Zero-Knowledge Encryption
   private final String checksum;
+  private final String keyId;
 
   @Override
   public void write(JsonObject out) {
     out.addProperty("data", data);
     out.addProperty("checksum", checksum);
+    out.addProperty("key-id", keyId);
   }
 
   @Override
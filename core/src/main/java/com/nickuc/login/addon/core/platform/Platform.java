@@ -48,6 +48,8 @@ public interface Platform {
 
   void showNotification(String message);
 
+  void runOnClientThread(Runnable runnable);
+
   void info(String message);
 
   void error(String message, Throwable t);
@@ -24,6 +24,8 @@
 
 package com.nickuc.login.addon.core.platform;
 
+import java.util.function.Consumer;
+
 public interface Settings {
 
   boolean isEnabled();
@@ -36,6 +38,7 @@ public interface Settings {
 
   boolean isSyncPasswords();
 
-  void init(String encryptionPassword, Runnable linkCallback, Runnable unlinkCallback);
+  void init(String encryptionPassword, Runnable linkCallback, Runnable unlinkCallback,
+      Runnable exportCallback, Consumer<String> encryptionPasswordCallback);
 
 }
\ No newline at end of file
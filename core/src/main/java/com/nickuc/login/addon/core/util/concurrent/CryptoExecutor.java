@@ -0,0 +1,202 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright © 2024 nLogin Addon Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nickuc.login.addon.core.util.concurrent;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Small pool for key derivation, AES-GCM and RSA work.
+ * <p>
+ * Tasks are ordered by {@link Priority} and then by submission order, so login-critical work
+ * jumps ahead of background sync work. Once {@code maxQueued} tasks are waiting, new tasks run on
+ * the submitting thread instead, which slows producers down.
+ */
+public class CryptoExecutor {
+
+  private final ThreadPoolExecutor executor;
+  private final int maxQueued;
+  private final AtomicInteger queued = new AtomicInteger();
+  private final AtomicLong sequence = new AtomicLong();
+  private final Metrics[] metrics = new Metrics[Priority.values().length];
+
+  public CryptoExecutor(int threads, int maxQueued) {
+    AtomicInteger threadId = new AtomicInteger();
+    this.executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+        new PriorityBlockingQueue<>(), runnable -> new Worker(runnable, "nLogin Addon Crypto #" + threadId.incrementAndGet()));
+    this.executor.allowCoreThreadTimeOut(true);
+    this.maxQueued = maxQueued;
+    for (Priority priority : Priority.values()) {
+      metrics[priority.ordinal()] = new Metrics();
+    }
+  }
+
+  public <T> CompletableFuture<T> submit(Priority priority, CryptoTask<T> task) {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    Task queuedTask = new Task(priority, sequence.incrementAndGet(), System.nanoTime(), () -> {
+      try {
+        future.complete(task.run());
+      } catch (Throwable t) {
+        future.completeExceptionally(t);
+      }
+    });
+
+    if (!executor.isShutdown()) {
+      if (queued.incrementAndGet() <= maxQueued) {
+        queuedTask.queued = true;
+        try {
+          executor.execute(queuedTask);
+          return future;
+        } catch (RejectedExecutionException e) {
+          // shut down after the check above
+          queuedTask.queued = false;
+        }
+      }
+      queued.decrementAndGet();
+    }
+
+    metrics[priority.ordinal()].callerRuns.incrementAndGet();
+    queuedTask.run();
+    return future;
+  }
+
+  // runs the task with the given priority and waits for its result
+  public <T> T call(Priority priority, CryptoTask<T> task) throws GeneralSecurityException {
+    if (Thread.currentThread() instanceof Worker) {
+      // already on a worker, waiting for another one could deadlock the pool
+      return task.run();
+    }
+
+    try {
+      return submit(priority, task).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new GeneralSecurityException("Interrupted while waiting for the crypto executor", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof GeneralSecurityException) {
+        throw (GeneralSecurityException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new RuntimeException(cause);
+    }
+  }
+
+  public void shutdown() {
+    executor.shutdown();
+  }
+
+  public String stats() {
+    StringBuilder builder = new StringBuilder("queued=").append(queued.get());
+    for (Priority priority : Priority.values()) {
+      Metrics metrics = this.metrics[priority.ordinal()];
+      long tasks = metrics.tasks.get();
+      builder.append(", ").append(priority.name().toLowerCase()).append("={tasks=").append(tasks)
+          .append(", avg-wait=").append(tasks == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(metrics.waitNanos.get() / tasks)).append("us")
+          .append(", max-wait=").append(TimeUnit.NANOSECONDS.toMicros(metrics.maxWaitNanos.get())).append("us")
+          .append(", avg-compute=").append(tasks == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(metrics.computeNanos.get() / tasks)).append("us")
+          .append(", caller-runs=").append(metrics.callerRuns.get()).append('}');
+    }
+    return builder.toString();
+  }
+
+  public enum Priority {
+    // declared from the most to the least urgent
+    LOGIN,
+    SYNC
+  }
+
+  @FunctionalInterface
+  public interface CryptoTask<T> {
+
+    T run() throws GeneralSecurityException;
+
+  }
+
+  private static class Worker extends Thread {
+
+    private Worker(Runnable runnable, String name) {
+      super(runnable, name);
+      setDaemon(true);
+    }
+  }
+
+  private static class Metrics {
+
+    private final AtomicLong tasks = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong computeNanos = new AtomicLong();
+    private final AtomicLong callerRuns = new AtomicLong();
+  }
+
+  @RequiredArgsConstructor
+  private class Task implements Runnable, Comparable<Task> {
+
+    private final Priority priority;
+    private final long sequence;
+    private final long submittedAt;
+    private final Runnable runnable;
+    private boolean queued;
+
+    @Override
+    public void run() {
+      long startedAt = System.nanoTime();
+      if (queued) {
+        CryptoExecutor.this.queued.decrementAndGet();
+      }
+
+      try {
+        runnable.run();
+      } finally {
+        long wait = startedAt - submittedAt;
+        Metrics metrics = CryptoExecutor.this.metrics[priority.ordinal()];
+        metrics.tasks.incrementAndGet();
+        metrics.waitNanos.addAndGet(wait);
+        metrics.maxWaitNanos.accumulateAndGet(wait, Math::max);
+        metrics.computeNanos.addAndGet(System.nanoTime() - startedAt);
+      }
+    }
+
+    @Override
+    public int compareTo(Task other) {
+      int compare = priority.compareTo(other.priority);
+      return compare != 0 ? compare : Long.compare(sequence, other.sequence);
+    }
+  }
+}
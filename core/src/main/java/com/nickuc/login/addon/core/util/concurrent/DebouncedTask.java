@@ -0,0 +1,131 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright © 2024 nLogin Addon Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nickuc.login.addon.core.util.concurrent;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a task once changes stop arriving for a quiet period, or at most a maximum delay after the
+ * first unhandled change, whichever comes first.
+ * <p>
+ * Nothing is scheduled while there is no pending change, so an idle client does no periodic work.
+ * Runs never overlap: a change signalled while the task is running schedules another run.
+ */
+public class DebouncedTask {
+
+  private final Scheduler scheduler;
+  private final String name;
+  private final Runnable task;
+  private final long quietPeriodNanos;
+  private final long maxDelayNanos;
+  private final Object runLock = new Object();
+  private boolean pending;
+  private boolean closed;
+  private long firstSignalAt;
+  private long lastSignalAt;
+
+  public DebouncedTask(Scheduler scheduler, String name, Runnable task, long quietPeriodMillis, long maxDelayMillis) {
+    if (quietPeriodMillis > maxDelayMillis) {
+      throw new IllegalArgumentException("quietPeriodMillis > maxDelayMillis");
+    }
+
+    this.scheduler = scheduler;
+    this.name = name;
+    this.task = task;
+    this.quietPeriodNanos = TimeUnit.MILLISECONDS.toNanos(quietPeriodMillis);
+    this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+  }
+
+  public synchronized void signal() {
+    if (closed || scheduler.isShutdown()) {
+      return;
+    }
+
+    long now = System.nanoTime();
+    lastSignalAt = now;
+    if (!pending) {
+      pending = true;
+      firstSignalAt = now;
+      scheduler.schedule(name, this::check, quietPeriodNanos, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /**
+   * Runs the pending task on the worker thread without waiting for the quiet period.
+   */
+  public synchronized void flush() {
+    if (pending && !closed && !scheduler.isShutdown()) {
+      pending = false;
+      scheduler.execute(name, this::run);
+    }
+  }
+
+  /**
+   * Stops scheduling runs and runs the pending task, if any, on the calling thread.
+   */
+  public void close() {
+    boolean run;
+    synchronized (this) {
+      run = pending;
+      pending = false;
+      closed = true;
+    }
+
+    if (run) {
+      run();
+    }
+  }
+
+  /**
+   * Stops scheduling runs and drops the pending one.
+   */
+  public synchronized void cancel() {
+    pending = false;
+    closed = true;
+  }
+
+  private void check() {
+    synchronized (this) {
+      if (!pending || closed) {
+        return;
+      }
+
+      long now = System.nanoTime();
+      long due = Math.min(lastSignalAt + quietPeriodNanos, firstSignalAt + maxDelayNanos);
+      if (now - due < 0) {
+        scheduler.schedule(name, this::check, due - now, TimeUnit.NANOSECONDS);
+        return;
+      }
+      pending = false;
+    }
+    run();
+  }
+
+  private void run() {
+    synchronized (runLock) {
+      task.run();
+    }
+  }
+}
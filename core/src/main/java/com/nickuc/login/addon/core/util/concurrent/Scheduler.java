@@ -0,0 +1,143 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright © 2024 nLogin Addon Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nickuc.login.addon.core.util.concurrent;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Named daemon threads shared by the background work of the addon (saves, sync, exports).
+ * <p>
+ * Every task has a name under which it is measured: how late it started compared to when it was
+ * due, and how long it ran. Threads exit after being idle, so nothing is kept alive while no task
+ * is scheduled.
+ */
+public class Scheduler {
+
+  private final ScheduledThreadPoolExecutor executor;
+  private final Map<String, Metrics> metrics = new ConcurrentHashMap<>();
+
+  public Scheduler(String name, int threads) {
+    AtomicInteger threadId = new AtomicInteger();
+    this.executor = new ScheduledThreadPoolExecutor(threads, runnable -> {
+      Thread thread = new Thread(runnable, name + " #" + threadId.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.executor.setKeepAliveTime(30, TimeUnit.SECONDS);
+    this.executor.allowCoreThreadTimeOut(true);
+    this.executor.setRemoveOnCancelPolicy(true);
+    this.executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+  }
+
+  public void execute(String name, Runnable runnable) {
+    executor.execute(new Task(metrics(name), System.nanoTime(), runnable));
+  }
+
+  public ScheduledFuture<?> schedule(String name, Runnable runnable, long delay, TimeUnit unit) {
+    return executor.schedule(new Task(metrics(name), System.nanoTime() + unit.toNanos(delay), runnable), delay, unit);
+  }
+
+  public boolean isShutdown() {
+    return executor.isShutdown();
+  }
+
+  /**
+   * Cancels the scheduled tasks and waits for the running ones to finish.
+   *
+   * @return false if some task was still running after the timeout
+   */
+  public boolean shutdown(long timeout, TimeUnit unit) {
+    executor.shutdown();
+    try {
+      return executor.awaitTermination(timeout, unit);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  public String stats() {
+    StringBuilder builder = new StringBuilder("threads=").append(executor.getPoolSize())
+        .append(", scheduled=").append(executor.getQueue().size());
+    metrics.forEach((name, metrics) -> {
+      long runs = metrics.runs.get();
+      builder.append(", ").append(name).append("={runs=").append(runs)
+          .append(", avg-delay=").append(runs == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(metrics.delayNanos.get() / runs)).append("ms")
+          .append(", max-delay=").append(TimeUnit.NANOSECONDS.toMillis(metrics.maxDelayNanos.get())).append("ms")
+          .append(", avg-run=").append(runs == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(metrics.runNanos.get() / runs)).append("ms")
+          .append(", max-run=").append(TimeUnit.NANOSECONDS.toMillis(metrics.maxRunNanos.get())).append("ms")
+          .append(", failures=").append(metrics.failures.get()).append('}');
+    });
+    return builder.toString();
+  }
+
+  private Metrics metrics(String name) {
+    return metrics.computeIfAbsent(name, key -> new Metrics());
+  }
+
+  private static class Metrics {
+
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong delayNanos = new AtomicLong();
+    private final AtomicLong maxDelayNanos = new AtomicLong();
+    private final AtomicLong runNanos = new AtomicLong();
+    private final AtomicLong maxRunNanos = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+  }
+
+  @RequiredArgsConstructor
+  private static class Task implements Runnable {
+
+    private final Metrics metrics;
+    private final long dueAt;
+    private final Runnable runnable;
+
+    @Override
+    public void run() {
+      long startedAt = System.nanoTime();
+      long delay = Math.max(0, startedAt - dueAt);
+      try {
+        runnable.run();
+      } catch (Throwable t) {
+        metrics.failures.incrementAndGet();
+        throw t;
+      } finally {
+        long finishedAt = System.nanoTime();
+        metrics.runs.incrementAndGet();
+        metrics.delayNanos.addAndGet(delay);
+        metrics.maxDelayNanos.accumulateAndGet(delay, Math::max);
+        metrics.runNanos.addAndGet(finishedAt - startedAt);
+        metrics.maxRunNanos.accumulateAndGet(finishedAt - startedAt, Math::max);
+      }
+    }
+  }
+}
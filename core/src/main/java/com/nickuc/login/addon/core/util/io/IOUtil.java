@@ -24,10 +24,21 @@
 
 package com.nickuc.login.addon.core.util.io;
 
+import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import lombok.Cleanup;
 import org.jetbrains.annotations.CheckReturnValue;
 
@@ -47,6 +58,60 @@ public class IOUtil {
     return buf.toByteArray();
   }
 
+  /**
+   * Replaces the target file without ever leaving it partially written: the content goes to a
+   * temporary file in the same directory, is forced to disk and then renamed over the target.
+   */
+  public static void writeAtomically(Path target, byte[] content) throws IOException {
+    replace(target, channel -> {
+      ByteBuffer buffer = ByteBuffer.wrap(content);
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    });
+  }
+
+  /**
+   * Same as {@link #writeAtomically(Path, byte[])}, but the content is encoded as UTF-8 through a
+   * buffered writer while it is produced, instead of being built in memory first.
+   */
+  public static void writeAtomically(Path target, TextContent content) throws IOException {
+    replace(target, channel -> {
+      Writer writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8), BUFFER_SIZE);
+      content.write(writer);
+      writer.flush();
+    });
+  }
+
+  private static void replace(Path target, ChannelContent content) throws IOException {
+    Path directory = target.toAbsolutePath().getParent();
+    Path temp = Files.createTempFile(directory, target.getFileName().toString(), ".tmp");
+    try {
+      try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+        content.write(channel);
+        channel.force(true);
+      }
+
+      try {
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+
+    forceDirectory(directory);
+  }
+
+  // persists the rename itself, not supported on every platform (e.g. Windows)
+  private static void forceDirectory(Path directory) {
+    try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+      channel.force(true);
+    } catch (IOException | UnsupportedOperationException ignored) {
+    }
+  }
+
   public static void write(InputStream input, OutputStream output, int bufSize) throws IOException {
     byte[] buf = new byte[bufSize];
     int size;
@@ -55,4 +120,18 @@ public class IOUtil {
     }
     output.flush();
   }
+
+  @FunctionalInterface
+  public interface TextContent {
+
+    void write(Writer writer) throws IOException;
+
+  }
+
+  @FunctionalInterface
+  private interface ChannelContent {
+
+    void write(FileChannel channel) throws IOException;
+
+  }
 }
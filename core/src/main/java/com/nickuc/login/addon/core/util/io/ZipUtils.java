@@ -44,10 +44,14 @@ public class ZipUtils {
   }
 
   public static byte[] decompress(byte[] in) {
+    return decompress(in, 0, in.length);
+  }
+
+  public static byte[] decompress(byte[] in, int offset, int length) {
     try {
       ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
       try (InflaterOutputStream inflate = new InflaterOutputStream(outputStream)) {
-        inflate.write(in);
+        inflate.write(in, offset, length);
         inflate.flush();
       }
       return outputStream.toByteArray();
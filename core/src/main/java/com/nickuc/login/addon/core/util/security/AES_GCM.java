@@ -27,16 +27,15 @@ package com.nickuc.login.addon.core.util.security;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
-import java.security.NoSuchAlgorithmException;
-import java.security.spec.InvalidKeySpecException;
-import java.security.spec.KeySpec;
+import java.security.InvalidAlgorithmParameterException;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.AEADBadTagException;
 import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
-import javax.crypto.SecretKeyFactory;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.GCMParameterSpec;
-import javax.crypto.spec.PBEKeySpec;
-import javax.crypto.spec.SecretKeySpec;
 
 /**
  * @author mkyong
@@ -44,10 +43,23 @@ import javax.crypto.spec.SecretKeySpec;
  * <p>
  * AES-GCM inputs - 12 bytes IV, need the same IV and secret keys for encryption and decryption.
  * <p>
- * The output consist of iv, password's salt, encrypted content and auth tag in the following
+ * The v1 output consist of iv, password's salt, encrypted content and auth tag in the following
  * format: output = byte[] {i i i s s s c c c c c c ...}
  * <p>
  * i = IV bytes s = Salt bytes c = content bytes (encrypted content)
+ * <p>
+ * The v2 output starts with a magic and a version byte, followed by the profile salt (used to
+ * stretch the main key once per password), the message salt (used to derive the per-message key
+ * with HKDF), the iv and the encrypted content: output = byte[] {m m m v p p p s s s i i i c c c ...}
+ * <p>
+ * The v3 output also records the key derivation function and its parameters right after the
+ * version byte: output = byte[] {m m m v k k k p p p s s s i i i c c c ...}, see {@link KdfParameters}.
+ * <p>
+ * The v2 and v3 headers are authenticated as additional data.
+ * <p>
+ * Only v1 is written, clients before the envelopes cannot read anything else; v2 and v3 are
+ * only read. The profile salt is reused as the v1 salt, so the PBKDF2 derivation still runs
+ * once per password.
  */
 public class AES_GCM {
 
@@ -58,71 +70,195 @@ public class AES_GCM {
       IV_LENGTH_BYTE = 12,
       SALT_LENGTH_BYTE = 16;
 
-  public static String encryptToBase64(String content, String password) throws GeneralSecurityException {
-    return Base64.getEncoder().encodeToString(encrypt(content.getBytes(StandardCharsets.UTF_8), password));
+  private static final byte[] MAGIC = {'n', 'L', 'A'};
+  private static final byte VERSION_1 = 1, VERSION_2 = 2, VERSION_3 = 3;
+  private static final int V2_HEADER_LENGTH = MAGIC.length + 1 + SALT_LENGTH_BYTE * 2 + IV_LENGTH_BYTE;
+  private static final int V3_HEADER_LENGTH = V2_HEADER_LENGTH + KdfParameters.SERIALIZED_LENGTH;
+  private static final byte[] MESSAGE_KEY_INFO = "nLogin Addon AES-GCM v2".getBytes(StandardCharsets.UTF_8);
+
+  public static final int PROFILE_SALT_LENGTH = SALT_LENGTH_BYTE;
+
+  // PBKDF2 is deliberately slow, so derived keys are kept around for a while
+  public static final DerivedKeyCache KEY_CACHE = new DerivedKeyCache(64, TimeUnit.MINUTES.toMillis(10));
+
+  public static String encryptToBase64(String content, String password, byte[] profileSalt) throws GeneralSecurityException {
+    return Base64.getEncoder().encodeToString(encrypt(content.getBytes(StandardCharsets.UTF_8), password, profileSalt));
   }
 
-  // return a base64 encoded AES encrypted text
-  public static byte[] encrypt(byte[] bytes, String password) throws GeneralSecurityException {
-    // 16 bytes salt
-    byte[] salt = SecureGenerator.getRandomNonce(SALT_LENGTH_BYTE);
+  // return an AES encrypted content, as v1
+  public static byte[] encrypt(byte[] bytes, String password, byte[] profileSalt) throws GeneralSecurityException {
+    ByteBuffer out = ByteBuffer.allocate(encryptedSize(bytes.length));
+    encrypt(ByteBuffer.wrap(bytes), out, password, profileSalt);
+    return out.array();
+  }
 
-    // GCM recommended 12 bytes iv?
-    byte[] iv = SecureGenerator.getRandomNonce(IV_LENGTH_BYTE);
+  public static int encryptedSize(int plainLength) {
+    return IV_LENGTH_BYTE + SALT_LENGTH_BYTE + plainLength + TAG_LENGTH_BIT / 8;
+  }
 
-    // secret key from password
-    SecretKey aesKeyFromPassword = getAESKeyFromPassword(password.toCharArray(), salt);
+  /**
+   * Encrypts the remaining bytes of {@code in} into {@code out}, advancing both buffers. The
+   * main key is derived from the password and the given profile salt, which is kept with the
+   * credentials so that the derivation is reused across messages and restarts. {@code out} needs
+   * {@link #encryptedSize(int)} bytes remaining and must not overlap the input.
+   *
+   * @return the number of bytes written into {@code out}
+   */
+  public static int encrypt(ByteBuffer in, ByteBuffer out, String password, byte[] profileSalt) throws GeneralSecurityException {
+    int required = encryptedSize(in.remaining());
+    if (out.remaining() < required) {
+      throw new ShortBufferException("Output buffer needs " + required + " bytes, " + out.remaining() + " available");
+    }
+    if (profileSalt.length != SALT_LENGTH_BYTE) {
+      throw new InvalidAlgorithmParameterException("Profile salt must have " + SALT_LENGTH_BYTE + " bytes");
+    }
 
-    Cipher cipher = Cipher.getInstance(ENCRYPT_ALGO);
+    SecretKey key = KEY_CACHE.get(password, profileSalt, KdfParameters.DEFAULT);
 
-    // ASE-GCM needs GCMParameterSpec
-    cipher.init(Cipher.ENCRYPT_MODE, aesKeyFromPassword, new GCMParameterSpec(TAG_LENGTH_BIT, iv));
+    // an iv starting with the magic would be read back as an envelope
+    byte[] iv;
+    do {
+      iv = SecureGenerator.getRandomNonce(IV_LENGTH_BYTE);
+    } while (iv[0] == MAGIC[0] && iv[1] == MAGIC[1] && iv[2] == MAGIC[2]);
 
-    byte[] cipherText = cipher.doFinal(bytes);
+    out.put(iv).put(profileSalt);
 
-    // prefix IV and Salt to cipher text
-    return ByteBuffer.allocate(iv.length + salt.length + cipherText.length)
-      .put(iv)
-      .put(salt)
-      .put(cipherText)
-      .array();
+    Cipher cipher = Cipher.getInstance(ENCRYPT_ALGO);
+    cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BIT, iv));
+    return IV_LENGTH_BYTE + SALT_LENGTH_BYTE + cipher.doFinal(in, out);
   }
 
   public static String decryptFromBase64(String base64, String password) throws GeneralSecurityException {
-    byte[] decrypted = decrypt(Base64.getDecoder().decode(base64.getBytes(StandardCharsets.UTF_8)), password);
-    return new String(decrypted, StandardCharsets.UTF_8);
+    byte[] content = Base64.getDecoder().decode(base64.getBytes(StandardCharsets.UTF_8));
+    ByteBuffer out = ByteBuffer.allocate(maxDecryptedSize(content.length));
+    int length = decrypt(ByteBuffer.wrap(content), out, password);
+    return new String(out.array(), 0, length, StandardCharsets.UTF_8);
   }
 
   // we need the same password, salt and iv to decrypt it
   public static byte[] decrypt(byte[] content, String password) throws GeneralSecurityException {
-    // get back the iv and salt from the cipher text
-    ByteBuffer bb = ByteBuffer.wrap(content);
+    ByteBuffer out = ByteBuffer.allocate(maxDecryptedSize(content.length));
+    int length = decrypt(ByteBuffer.wrap(content), out, password);
+    return length == out.capacity() ? out.array() : Arrays.copyOf(out.array(), length);
+  }
+
+  // upper bound of the decrypted size, whatever the version of the content
+  public static int maxDecryptedSize(int encryptedLength) {
+    return Math.max(0, encryptedLength - IV_LENGTH_BYTE - SALT_LENGTH_BYTE - TAG_LENGTH_BIT / 8);
+  }
+
+  /**
+   * Decrypts the remaining bytes of {@code in} into {@code out}, advancing both buffers. The header
+   * is read straight from {@code in}, {@code out} needs {@link #maxDecryptedSize(int)} bytes
+   * remaining and may share the backing array of the input.
+   *
+   * @return the number of bytes written into {@code out}
+   */
+  public static int decrypt(ByteBuffer in, ByteBuffer out, String password) throws GeneralSecurityException {
+    int inPosition = in.position();
+    int outPosition = out.position();
+
+    int version = envelopeVersion(in);
+    if (version == VERSION_1) {
+      return decryptV1(in, out, password);
+    }
+
+    // not retried as v1, so that a wrong password costs a single derivation of the header's cost
+    if (version == VERSION_3) {
+      return decryptEnvelope(in, out, password, version);
+    }
+
+    try {
+      return decryptEnvelope(in, out, password, version);
+    } catch (GeneralSecurityException e) {
+      // v1 content starts with a random IV, which may collide with the magic
+      in.position(inPosition);
+      out.position(outPosition);
+      try {
+        return decryptV1(in, out, password);
+      } catch (GeneralSecurityException ignored) {
+        throw e;
+      }
+    }
+  }
+
+  private static int envelopeVersion(ByteBuffer in) {
+    int start = in.position();
+    int length = in.remaining();
+    if (length < V2_HEADER_LENGTH + TAG_LENGTH_BIT / 8) {
+      return VERSION_1;
+    }
+
+    for (int i = 0; i < MAGIC.length; i++) {
+      if (in.get(start + i) != MAGIC[i]) {
+        return VERSION_1;
+      }
+    }
+
+    byte version = in.get(start + MAGIC.length);
+    if (version == VERSION_3 && length >= V3_HEADER_LENGTH + TAG_LENGTH_BIT / 8) {
+      return VERSION_3;
+    }
+    return version == VERSION_2 ? VERSION_2 : VERSION_1;
+  }
+
+  private static int decryptEnvelope(ByteBuffer in, ByteBuffer out, String password, int version) throws GeneralSecurityException {
+    int headerStart = in.position();
+    in.position(headerStart + MAGIC.length + 1);
+
+    // v2 content was always derived with the default parameters
+    KdfParameters kdf = version == VERSION_3 ? KdfParameters.read(in) : KdfParameters.DEFAULT;
+
+    byte[] profileSalt = new byte[SALT_LENGTH_BYTE];
+    in.get(profileSalt);
+
+    byte[] messageSalt = new byte[SALT_LENGTH_BYTE];
+    in.get(messageSalt);
 
     byte[] iv = new byte[IV_LENGTH_BYTE];
-    bb.get(iv);
+    in.get(iv);
 
-    byte[] salt = new byte[SALT_LENGTH_BYTE];
-    bb.get(salt);
+    SecretKey mainKey = KEY_CACHE.get(password, profileSalt, kdf);
+    SecretKey messageKey = HKDF.deriveAESKey(mainKey, messageSalt, MESSAGE_KEY_INFO);
 
-    byte[] cipherText = new byte[bb.remaining()];
-    bb.get(cipherText);
+    Cipher cipher = Cipher.getInstance(ENCRYPT_ALGO);
+    cipher.init(Cipher.DECRYPT_MODE, messageKey, new GCMParameterSpec(TAG_LENGTH_BIT, iv));
+    cipher.updateAAD(slice(in, headerStart, in.position() - headerStart));
+    return cipher.doFinal(in, out);
+  }
+
+  private static int decryptV1(ByteBuffer in, ByteBuffer out, String password) throws GeneralSecurityException {
+    if (in.remaining() < IV_LENGTH_BYTE + SALT_LENGTH_BYTE + TAG_LENGTH_BIT / 8) {
+      throw new AEADBadTagException("Content too short");
+    }
+
+    // get back the iv and salt from the cipher text
+    byte[] iv = new byte[IV_LENGTH_BYTE];
+    in.get(iv);
+
+    byte[] salt = new byte[SALT_LENGTH_BYTE];
+    in.get(salt);
 
     // get back the aes key from the same password and salt
-    SecretKey aesKeyFromPassword = getAESKeyFromPassword(password.toCharArray(), salt);
+    SecretKey aesKeyFromPassword = KEY_CACHE.get(password, salt, KdfParameters.DEFAULT);
 
     Cipher cipher = Cipher.getInstance(ENCRYPT_ALGO);
 
     cipher.init(Cipher.DECRYPT_MODE, aesKeyFromPassword, new GCMParameterSpec(TAG_LENGTH_BIT, iv));
 
-    return cipher.doFinal(cipherText);
+    return cipher.doFinal(in, out);
+  }
+
+  private static ByteBuffer slice(ByteBuffer buffer, int position, int length) {
+    ByteBuffer slice = buffer.duplicate();
+    slice.limit(position + length).position(position);
+    return slice;
   }
 
-  // Password derived AES 256 bits secret key
-  public static SecretKey getAESKeyFromPassword(char[] password, byte[] salt) throws NoSuchAlgorithmException, InvalidKeySpecException {
-    SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+  // Password derived AES 256 bits secret key, with the v1 parameters
+  public static SecretKey getAESKeyFromPassword(char[] password, byte[] salt) throws GeneralSecurityException {
     // iterationCount = 65536
     // keyLength = 256
-    KeySpec spec = new PBEKeySpec(password, salt, 65536, 256);
-    return new SecretKeySpec(factory.generateSecret(spec).getEncoded(), "AES");
+    return KdfParameters.DEFAULT.derive(password, salt);
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,161 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright © 2024 nLogin Addon Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nickuc.login.addon.core.util.security;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.crypto.SecretKey;
+import lombok.EqualsAndHashCode;
+import lombok.RequiredArgsConstructor;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Bounded cache of PBKDF2 derived keys, indexed by the password fingerprint, the salt and the
+ * key derivation parameters.
+ * <p>
+ * Entries are evicted in LRU order once {@code maxSize} is reached and expire {@code ttlMillis}
+ * after being derived. Plain passwords are never retained, only their SHA-256 fingerprint.
+ * <p>
+ * A key is only reused when the same salt comes back: content decrypted again, or content
+ * encrypted with the profile salt of the password, which v1 reuses as its salt, so only the first
+ * derivation for a password misses.
+ */
+public class DerivedKeyCache {
+
+  private final int maxSize;
+  private final long ttlMillis;
+  private final LinkedHashMap<Entry, CachedKey> keys;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  public DerivedKeyCache(int maxSize, long ttlMillis) {
+    this.maxSize = maxSize;
+    this.ttlMillis = ttlMillis;
+    this.keys = new LinkedHashMap<>(16, 0.75F, true);
+  }
+
+  public SecretKey get(String password, byte[] salt, KdfParameters parameters) throws GeneralSecurityException {
+    Entry entry = new Entry(fingerprint(password), salt, parameters);
+    SecretKey key = lookup(entry);
+    if (key != null) {
+      hits.incrementAndGet();
+      return key;
+    }
+
+    misses.incrementAndGet();
+
+    // derive outside the lock, PBKDF2 is the expensive part
+    key = parameters.derive(password.toCharArray(), salt);
+    put(entry, key);
+    return key;
+  }
+
+  @Nullable
+  private synchronized SecretKey lookup(Entry entry) {
+    CachedKey cached = keys.get(entry);
+    if (cached == null) {
+      return null;
+    }
+
+    if (cached.expiresAt < System.currentTimeMillis()) {
+      keys.remove(entry);
+      evictions.incrementAndGet();
+      return null;
+    }
+    return cached.key;
+  }
+
+  private synchronized void put(Entry entry, SecretKey key) {
+    keys.put(entry, new CachedKey(key, System.currentTimeMillis() + ttlMillis));
+
+    Iterator<CachedKey> iterator = keys.values().iterator();
+    while (keys.size() > maxSize && iterator.hasNext()) {
+      iterator.next();
+      iterator.remove();
+      evictions.incrementAndGet();
+    }
+  }
+
+  public synchronized void invalidate(@Nullable String password) {
+    if (password == null) {
+      return;
+    }
+
+    byte[] fingerprint = fingerprint(password);
+    keys.keySet().removeIf(entry -> Arrays.equals(entry.fingerprint, fingerprint));
+  }
+
+  public synchronized void invalidateAll() {
+    keys.clear();
+  }
+
+  public synchronized int size() {
+    return keys.size();
+  }
+
+  public String stats() {
+    long hits = this.hits.get();
+    long total = hits + misses.get();
+    return String.format("size=%d, hits=%d, misses=%d, evictions=%d, hit-rate=%.1f%%",
+        size(), hits, misses.get(), evictions.get(), total == 0 ? 0D : hits * 100D / total);
+  }
+
+  private static byte[] fingerprint(String password) {
+    try {
+      return MessageDigest.getInstance("SHA-256").digest(password.getBytes(StandardCharsets.UTF_8));
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @EqualsAndHashCode
+  private static class Entry {
+
+    private final byte[] fingerprint;
+    private final byte[] salt;
+    private final KdfParameters parameters;
+
+    private Entry(byte[] fingerprint, byte[] salt, KdfParameters parameters) {
+      this.fingerprint = fingerprint;
+      this.salt = salt.clone();
+      this.parameters = parameters;
+    }
+  }
+
+  @RequiredArgsConstructor
+  private static class CachedKey {
+
+    private final SecretKey key;
+    private final long expiresAt;
+  }
+}
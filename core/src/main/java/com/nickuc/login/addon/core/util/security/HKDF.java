@@ -0,0 +1,74 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright © 2024 nLogin Addon Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nickuc.login.addon.core.util.security;
+
+import java.security.GeneralSecurityException;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * HMAC-based Extract-and-Expand Key Derivation Function (RFC 5869) using HMAC-SHA256.
+ */
+public class HKDF {
+
+  private static final String HMAC_ALGO = "HmacSHA256";
+  private static final int HASH_LENGTH = 32;
+
+  public static SecretKey deriveAESKey(SecretKey masterKey, byte[] salt, byte[] info) throws GeneralSecurityException {
+    byte[] prk = extract(salt, masterKey.getEncoded());
+    return new SecretKeySpec(expand(prk, info, 32), "AES");
+  }
+
+  public static byte[] extract(byte[] salt, byte[] inputKeyMaterial) throws GeneralSecurityException {
+    Mac mac = Mac.getInstance(HMAC_ALGO);
+    mac.init(new SecretKeySpec(salt.length > 0 ? salt : new byte[HASH_LENGTH], HMAC_ALGO));
+    return mac.doFinal(inputKeyMaterial);
+  }
+
+  public static byte[] expand(byte[] prk, byte[] info, int length) throws GeneralSecurityException {
+    if (length > 255 * HASH_LENGTH) {
+      throw new IllegalArgumentException("HKDF cannot expand more than " + 255 * HASH_LENGTH + " bytes");
+    }
+
+    Mac mac = Mac.getInstance(HMAC_ALGO);
+    mac.init(new SecretKeySpec(prk, HMAC_ALGO));
+
+    byte[] out = new byte[length];
+    byte[] block = new byte[0];
+    int offset = 0;
+    for (int i = 1; offset < length; i++) {
+      mac.update(block);
+      mac.update(info);
+      mac.update((byte) i);
+      block = mac.doFinal();
+
+      int size = Math.min(block.length, length - offset);
+      System.arraycopy(block, 0, out, offset, size);
+      offset += size;
+    }
+    return out;
+  }
+}
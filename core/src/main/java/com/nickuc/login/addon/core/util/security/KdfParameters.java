@@ -0,0 +1,78 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright © 2024 nLogin Addon Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nickuc.login.addon.core.util.security;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.spec.KeySpec;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import lombok.Value;
+
+/**
+ * Password based key derivation function and its parameters, as stored in the encrypted header.
+ * <p>
+ * Serialized as {@code byte[] {k n n n n l l}}, where k = KDF id, n = iterations (big endian) and
+ * l = derived key length in bits (big endian).
+ */
+@Value
+public class KdfParameters {
+
+  public static final byte PBKDF2_HMAC_SHA256 = 1;
+  public static final int SERIALIZED_LENGTH = 7;
+
+  // headers above it are rejected, so that a crafted one cannot stall the client
+  public static final int MAX_ITERATIONS = 1_000_000;
+
+  public static final KdfParameters DEFAULT = new KdfParameters(PBKDF2_HMAC_SHA256, 65536, 256);
+
+  byte id;
+  int iterations;
+  int keyLength;
+
+  public SecretKey derive(char[] password, byte[] salt) throws GeneralSecurityException {
+    SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+    KeySpec spec = new PBEKeySpec(password, salt, iterations, keyLength);
+    return new SecretKeySpec(factory.generateSecret(spec).getEncoded(), "AES");
+  }
+
+  public static KdfParameters read(ByteBuffer in) throws GeneralSecurityException {
+    byte id = in.get();
+    int iterations = in.getInt();
+    int keyLength = in.getShort() & 0xFFFF;
+    if (id != PBKDF2_HMAC_SHA256) {
+      throw new GeneralSecurityException("Unsupported key derivation function: " + id);
+    }
+    if (iterations < 1 || iterations > MAX_ITERATIONS) {
+      throw new GeneralSecurityException("Invalid key derivation iterations: " + iterations);
+    }
+    if (keyLength != 128 && keyLength != 192 && keyLength != 256) {
+      throw new GeneralSecurityException("Invalid derived key length: " + keyLength);
+    }
+    return new KdfParameters(id, iterations, keyLength);
+  }
+}
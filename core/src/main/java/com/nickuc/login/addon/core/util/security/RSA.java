@@ -24,40 +24,138 @@
 
 package com.nickuc.login.addon.core.util.security;
 
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 import java.security.KeyFactory;
+import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
 import java.security.spec.EncodedKeySpec;
 import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+import lombok.RequiredArgsConstructor;
 import org.jetbrains.annotations.Nullable;
 
 public class RSA {
 
+  private static final int KEY_CACHE_SIZE = 32;
+
+  private static final ThreadLocal<KeyFactory> KEY_FACTORY = ThreadLocal.withInitial(() -> {
+    try {
+      return KeyFactory.getInstance("RSA");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  });
+
+  private static final ThreadLocal<Cipher> DECRYPT_CIPHER = ThreadLocal.withInitial(() -> {
+    try {
+      return Cipher.getInstance("RSA");
+    } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+      throw new RuntimeException(e);
+    }
+  });
+
+  // Servers are joined over and over again, so their decoded keys are kept by encoded bytes
+  private static final Map<ByteBuffer, CachedKey> KEYS = new LinkedHashMap<ByteBuffer, CachedKey>(KEY_CACHE_SIZE, 0.75F, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<ByteBuffer, CachedKey> eldest) {
+      return size() > KEY_CACHE_SIZE;
+    }
+  };
+
   public static PublicKey getPublicKeyFromBase64(String base64) {
     return getPublicKeyFromBytes(Base64.getDecoder().decode(base64));
   }
 
   @Nullable
   public static PublicKey getPublicKeyFromBytes(byte[] bytes) {
+    ByteBuffer encoded = ByteBuffer.wrap(bytes.clone());
+    synchronized (KEYS) {
+      CachedKey cached = KEYS.get(encoded);
+      if (cached != null) {
+        return cached.key;
+      }
+    }
+
     try {
-      KeyFactory keyFactory = KeyFactory.getInstance("RSA");
-      EncodedKeySpec publicKeySpec = new X509EncodedKeySpec(bytes);
-      return keyFactory.generatePublic(publicKeySpec);
+      EncodedKeySpec publicKeySpec = new X509EncodedKeySpec(encoded.array());
+      PublicKey publicKey = KEY_FACTORY.get().generatePublic(publicKeySpec);
+      cache(encoded, publicKey);
+      return publicKey;
     } catch (GeneralSecurityException e) {
       return null;
     }
   }
 
+  // SHA-256 of the encoded key, used to identify servers
+  public static String getKeyId(PublicKey publicKey) {
+    CachedKey cached = lookup(publicKey);
+    if (cached == null) {
+      cached = cache(ByteBuffer.wrap(publicKey.getEncoded()), publicKey);
+    }
+    return cached.getId();
+  }
+
+  public static boolean isSameKey(PublicKey a, PublicKey b) {
+    if (a == b) {
+      return true;
+    }
+
+    CachedKey cachedA = lookup(a);
+    CachedKey cachedB = lookup(b);
+    return Arrays.equals(
+        cachedA != null ? cachedA.encoded.array() : a.getEncoded(),
+        cachedB != null ? cachedB.encoded.array() : b.getEncoded());
+  }
+
   @Nullable
   public static byte[] decrypt(PublicKey publicKey, byte[] data) {
     try {
-      Cipher decryptCipher = Cipher.getInstance("RSA");
-      decryptCipher.init(2, publicKey);
+      Cipher decryptCipher = DECRYPT_CIPHER.get();
+      decryptCipher.init(Cipher.DECRYPT_MODE, publicKey);
       return decryptCipher.doFinal(data);
     } catch (GeneralSecurityException e) {
       return null;
     }
   }
+
+  @Nullable
+  private static CachedKey lookup(PublicKey publicKey) {
+    synchronized (KEYS) {
+      for (CachedKey cached : KEYS.values()) {
+        if (cached.key == publicKey) {
+          return cached;
+        }
+      }
+    }
+    return null;
+  }
+
+  private static CachedKey cache(ByteBuffer encoded, PublicKey publicKey) {
+    CachedKey cached = new CachedKey(encoded, publicKey);
+    synchronized (KEYS) {
+      CachedKey previous = KEYS.putIfAbsent(encoded, cached);
+      return previous != null ? previous : cached;
+    }
+  }
+
+  @RequiredArgsConstructor
+  private static class CachedKey {
+
+    private final ByteBuffer encoded;
+    private final PublicKey key;
+    private String id;
+
+    private String getId() {
+      if (id == null) {
+        id = SHA256.hash(encoded.array());
+      }
+      return id;
+    }
+  }
 }
@@ -24,30 +24,164 @@
 
 package com.nickuc.login.addon.core.util.security;
 
-import java.math.BigInteger;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public class SHA256 {
 
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+  private static final int DIGEST_LENGTH = 32;
+  private static final int PREFIX_CACHE_SIZE = 8;
+  private static final int BUFFER_SIZE = 1024;
+
+  private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(SHA256::newDigest);
+  private static final ThreadLocal<byte[]> BUFFER = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+
+  // Digest states that already absorbed a prefix (usually a main key), per thread
+  private static final ThreadLocal<Map<String, MessageDigest>> PREFIXES = ThreadLocal.withInitial(
+      () -> new LinkedHashMap<String, MessageDigest>(PREFIX_CACHE_SIZE, 0.75F, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, MessageDigest> eldest) {
+          return size() > PREFIX_CACHE_SIZE;
+        }
+      });
+
   public static String hash(String str) {
-    return hash(str.getBytes(StandardCharsets.UTF_8));
+    MessageDigest messageDigest = DIGEST.get();
+    update(messageDigest, str);
+    return toHex(messageDigest.digest());
   }
 
   public static String hash(byte[] content) {
-    try {
-      MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
-      messageDigest.reset();
-      messageDigest.update(content);
-      byte[] digest = messageDigest.digest();
-      return String.format("%0" + (digest.length << 1) + "x", new BigInteger(1, digest));
-    } catch (NoSuchAlgorithmException e) {
-      throw new RuntimeException(e);
+    return toHex(digest(content));
+  }
+
+  public static byte[] digest(byte[] content) {
+    return DIGEST.get().digest(content);
+  }
+
+  // same as hash(prefix + data), without building the concatenated string
+  public static String hash(String prefix, String data) {
+    return toHex(digest(prefix, data));
+  }
+
+  public static byte[] digest(String prefix, String data) {
+    MessageDigest messageDigest = prefixed(prefix);
+    update(messageDigest, data);
+    return messageDigest.digest();
+  }
+
+  // same as hash(hash(hash("" + a) + b) + c...), used for sets of keys
+  public static String chain(Iterable<String> values) {
+    MessageDigest messageDigest = DIGEST.get();
+    byte[] digest = null;
+    for (String value : values) {
+      if (digest != null) {
+        updateHex(messageDigest, digest);
+      }
+      update(messageDigest, value);
+      digest = messageDigest.digest();
     }
+    return digest != null ? toHex(digest) : "";
   }
 
   public static boolean checksum(String plainText, String hashed) {
-    return SHA256.hash(plainText).equals(hashed);
+    MessageDigest messageDigest = DIGEST.get();
+    update(messageDigest, plainText);
+    return matches(messageDigest.digest(), hashed);
+  }
+
+  // same as checksum(prefix + data, hashed), without building the concatenated string
+  public static boolean checksum(String prefix, String data, String hashed) {
+    return matches(digest(prefix, data), hashed);
+  }
+
+  // constant time comparison between a digest and its hex representation
+  private static boolean matches(byte[] digest, String hashed) {
+    if (hashed == null || hashed.length() != DIGEST_LENGTH << 1) {
+      return false;
+    }
+
+    byte[] expected = new byte[DIGEST_LENGTH];
+    int invalid = 0;
+    for (int i = 0; i < DIGEST_LENGTH; i++) {
+      int high = Character.digit(hashed.charAt(i << 1), 16);
+      int low = Character.digit(hashed.charAt((i << 1) + 1), 16);
+      invalid |= (high | low) >>> 31;
+      expected[i] = (byte) ((high << 4) | low);
+    }
+    return MessageDigest.isEqual(digest, expected) & invalid == 0;
+  }
+
+  public static String toHex(byte[] bytes) {
+    char[] chars = new char[bytes.length << 1];
+    for (int i = 0; i < bytes.length; i++) {
+      int b = bytes[i] & 0xFF;
+      chars[i << 1] = HEX[b >>> 4];
+      chars[(i << 1) + 1] = HEX[b & 0x0F];
+    }
+    return new String(chars);
+  }
+
+  private static MessageDigest prefixed(String prefix) {
+    Map<String, MessageDigest> prefixes = PREFIXES.get();
+    MessageDigest state = prefixes.get(prefix);
+    if (state == null) {
+      state = newDigest();
+      update(state, prefix);
+      prefixes.put(prefix, state);
+    }
+
+    try {
+      return (MessageDigest) state.clone();
+    } catch (CloneNotSupportedException e) {
+      MessageDigest messageDigest = DIGEST.get();
+      update(messageDigest, prefix);
+      return messageDigest;
+    }
+  }
+
+  // hex encodes the digest straight into the digest input
+  private static void updateHex(MessageDigest messageDigest, byte[] digest) {
+    byte[] buf = BUFFER.get();
+    for (int i = 0; i < digest.length; i++) {
+      int b = digest[i] & 0xFF;
+      buf[i << 1] = (byte) HEX[b >>> 4];
+      buf[(i << 1) + 1] = (byte) HEX[b & 0x0F];
+    }
+    messageDigest.update(buf, 0, digest.length << 1);
+  }
+
+  // UTF-8 encodes the string through a reusable buffer, ASCII content does not allocate
+  private static void update(MessageDigest messageDigest, String str) {
+    byte[] buf = BUFFER.get();
+    int length = str.length();
+    int size = 0;
+    for (int i = 0; i < length; i++) {
+      char c = str.charAt(i);
+      if (c >= 0x80) {
+        messageDigest.update(buf, 0, size);
+        messageDigest.update(str.substring(i).getBytes(StandardCharsets.UTF_8));
+        return;
+      }
+
+      buf[size++] = (byte) c;
+      if (size == buf.length) {
+        messageDigest.update(buf, 0, size);
+        size = 0;
+      }
+    }
+    messageDigest.update(buf, 0, size);
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
   }
 }
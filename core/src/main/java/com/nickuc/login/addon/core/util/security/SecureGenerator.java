@@ -27,10 +27,12 @@ package com.nickuc.login.addon.core.util.security;
 import com.nickuc.login.addon.core.Constants;
 import java.security.SecureRandom;
 import java.util.Base64;
+import java.util.function.BiConsumer;
 
 public class SecureGenerator {
 
-  public static final SecureRandom RANDOM = new SecureRandom();
+  // one instance per thread, so concurrent callers do not serialize on the same lock
+  private static final ThreadLocal<SecureRandom> RANDOM = ThreadLocal.withInitial(SecureRandom::new);
 
   private static final char[]
       LETTERS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz".toCharArray(),
@@ -38,12 +40,43 @@ public class SecureGenerator {
       SYMBOLS = "^!@#$%&*".toCharArray(),
       ALL = merge(LETTERS, NUMBERS, SYMBOLS);
 
+  private static final SecurePool<byte[]> RSA_CHALLENGES = new SecurePool<>("RSA Challenge", 4, SecureGenerator::generateRSAChallenge);
+  private static final SecurePool<String> PASSWORDS = new SecurePool<>("Password", 4, SecureGenerator::generatePassword);
+
+  public static void startPools(BiConsumer<String, Throwable> errorHandler) {
+    RSA_CHALLENGES.start(errorHandler);
+    PASSWORDS.start(errorHandler);
+  }
+
+  public static void stopPools() {
+    RSA_CHALLENGES.stop();
+    PASSWORDS.stop();
+  }
+
+  // pre-generated, falls back to generateRSAChallenge()
+  public static byte[] nextRSAChallenge() {
+    return RSA_CHALLENGES.take();
+  }
+
+  // pre-generated, falls back to generatePassword()
+  public static String nextPassword() {
+    return PASSWORDS.take();
+  }
+
+  public static String poolStats() {
+    return RSA_CHALLENGES.stats() + "; " + PASSWORDS.stats();
+  }
+
+  public static SecureRandom random() {
+    return RANDOM.get();
+  }
+
   public static String generateKey() {
     // 6 bits = 1 char
     int bytesLength = (Constants.MAIN_KEY_LENGTH * 6) / 8;
     byte[] bytes = new byte[bytesLength];
 
-    RANDOM.nextBytes(bytes);
+    random().nextBytes(bytes);
     return Base64.getEncoder().encodeToString(bytes);
   }
 
@@ -53,54 +86,31 @@ public class SecureGenerator {
 
   public static byte[] getRandomNonce(int numBytes) {
     byte[] nonce = new byte[numBytes];
-    RANDOM.nextBytes(nonce);
+    random().nextBytes(nonce);
     return nonce;
   }
 
   public static String generatePassword() {
-    StringBuilder builder = new StringBuilder();
-
     final int length = Constants.DEFAULT_PASSWORD_LENGTH;
-    for (int i = 0; i < length; i++) {
-      builder.append(ALL[(int) (RANDOM.nextDouble() * ALL.length)]);
-    }
 
+    // one random block for the whole password instead of one draw per character
+    RandomBlock random = new RandomBlock(random(), length * 2 + 8);
+    char[] password = new char[length];
     for (int i = 0; i < length; i++) {
-      char c = builder.charAt(i);
-
-      boolean numbers = false;
-      boolean symbols = false;
-      for (char number : NUMBERS) {
-        if (c == number) {
-          numbers = true;
-          break;
-        }
-      }
+      password[i] = ALL[random.nextInt(ALL.length)];
+    }
 
-      if (numbers) {
-        for (char symbol : SYMBOLS) {
-          if (c == symbol) {
-            symbols = true;
-            break;
-          }
-        }
-      }
+    // ensures at least one number and one symbol, at different positions
+    int numberPosition = random.nextInt(length);
+    password[numberPosition] = NUMBERS[random.nextInt(NUMBERS.length)];
 
-      if (!symbols) {
-        int restrictedPos = (int) (RANDOM.nextDouble() * length);
-        builder.setCharAt(restrictedPos, NUMBERS[(int) (RANDOM.nextDouble() * NUMBERS.length)]);
-        while (true) {
-          int position = (int) (RANDOM.nextDouble() * length);
-          if (position == restrictedPos) {
-            continue;
-          }
-          builder.setCharAt(position, SYMBOLS[(int) (RANDOM.nextDouble() * SYMBOLS.length)]);
-          break;
-        }
-      }
+    int symbolPosition = random.nextInt(length - 1);
+    if (symbolPosition >= numberPosition) {
+      symbolPosition++;
     }
+    password[symbolPosition] = SYMBOLS[random.nextInt(SYMBOLS.length)];
 
-    return builder.toString();
+    return new String(password);
   }
 
   private static char[] merge(char[]... chars) {
@@ -118,4 +128,34 @@ public class SecureGenerator {
     }
     return buf;
   }
+
+  // Uniform bounded integers drawn from a block of random bytes, by rejection sampling
+  private static class RandomBlock {
+
+    private final SecureRandom random;
+    private final byte[] block;
+    private int position;
+
+    private RandomBlock(SecureRandom random, int size) {
+      this.random = random;
+      this.block = new byte[size];
+      this.position = size;
+    }
+
+    // bound must be in (0, 256]
+    private int nextInt(int bound) {
+      int limit = 256 - 256 % bound;
+      while (true) {
+        if (position == block.length) {
+          random.nextBytes(block);
+          position = 0;
+        }
+
+        int value = block[position++] & 0xFF;
+        if (value < limit) {
+          return value % bound;
+        }
+      }
+    }
+  }
 }
@@ -0,0 +1,108 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright © 2024 nLogin Addon Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nickuc.login.addon.core.util.security;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Small buffer of pre-generated secure values, refilled by a low priority background thread
+ * between {@link #start(BiConsumer)} and {@link #stop()}.
+ * <p>
+ * Every value is handed out only once. When the buffer is empty, the value is generated on the
+ * calling thread and the fallback is counted.
+ */
+public class SecurePool<T> {
+
+  private final String name;
+  private final Supplier<T> generator;
+  private final BlockingQueue<T> pool;
+  private final AtomicReference<Thread> thread = new AtomicReference<>();
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong fallbacks = new AtomicLong();
+
+  public SecurePool(String name, int capacity, Supplier<T> generator) {
+    this.name = name;
+    this.generator = generator;
+    this.pool = new ArrayBlockingQueue<>(capacity);
+  }
+
+  public T take() {
+    T value = pool.poll();
+    if (value != null) {
+      hits.incrementAndGet();
+      return value;
+    }
+
+    fallbacks.incrementAndGet();
+    return generator.get();
+  }
+
+  public void start(BiConsumer<String, Throwable> errorHandler) {
+    Thread thread = new Thread(() -> {
+      try {
+        while (!Thread.currentThread().isInterrupted()) {
+          // blocks while the pool is full
+          pool.put(generator.get());
+        }
+      } catch (InterruptedException ignored) {
+        // stopped
+      } catch (Throwable t) {
+        // values are generated by the callers from now on, a later start may retry
+        this.thread.compareAndSet(Thread.currentThread(), null);
+        errorHandler.accept("Cannot pre-generate " + name + " values", t);
+      }
+    }, "nLogin Addon " + name + " Pool");
+    thread.setDaemon(true);
+    thread.setPriority(Thread.MIN_PRIORITY);
+    if (this.thread.compareAndSet(null, thread)) {
+      thread.start();
+    }
+  }
+
+  public void stop() {
+    Thread thread = this.thread.getAndSet(null);
+    if (thread != null) {
+      thread.interrupt();
+    }
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getFallbacks() {
+    return fallbacks.get();
+  }
+
+  public String stats() {
+    return name + " pool: available=" + pool.size() + ", hits=" + hits.get() + ", fallbacks=" + fallbacks.get();
+  }
+}
@@ -35,6 +35,7 @@ import com.nickuc.login.addon.core.platform.Settings;
 import com.nickuc.login.addon.labymod.LabyModBootstrap.Configuration;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.util.function.Consumer;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
 import net.labymod.api.Constants.Files;
@@ -141,6 +142,11 @@ public class LabyModBootstrap extends LabyAddon<Configuration> implements Platfo
     labyAPI().notificationController().push(notification);
   }
 
+  @Override
+  public void runOnClientThread(Runnable runnable) {
+    labyAPI().minecraft().executeOnRenderThread(runnable);
+  }
+
   @Override
   public void info(String message) {
     logger().info(message);
@@ -193,7 +199,8 @@ public class LabyModBootstrap extends LabyAddon<Configuration> implements Platfo
   }
 
   public static Setting NLOGIN_SETTINGS;
-  private static Runnable LINK_CALLBACK = () -> {}, UNLINK_CALLBACK = () -> {};
+  private static Runnable LINK_CALLBACK = () -> {}, UNLINK_CALLBACK = () -> {}, EXPORT_CALLBACK = () -> {};
+  private static Consumer<String> ENCRYPTION_PASSWORD_CALLBACK;
 
   @ConfigName("settings")
   @SpriteTexture(value = "settings")
@@ -221,6 +228,12 @@ public class LabyModBootstrap extends LabyAddon<Configuration> implements Platfo
     @SwitchSetting
     private final ConfigProperty<Boolean> debug = new ConfigProperty<>(false);
 
+    @MethodOrder(after = "debug")
+    @ButtonSetting
+    public void exportCredentials() {
+      EXPORT_CALLBACK.run();
+    }
+
     @SettingSection("backups")
     @MethodOrder(after = "enabled")
     @SpriteSlot(size = 32, x = 2, y = 1)
@@ -267,10 +280,16 @@ public class LabyModBootstrap extends LabyAddon<Configuration> implements Platfo
     }
 
     @Override
-    public void init(String encryptionPassword, Runnable linkCallback, Runnable unlinkCallback) {
+    public void init(String encryptionPassword, Runnable linkCallback, Runnable unlinkCallback,
+        Runnable exportCallback, Consumer<String> encryptionPasswordCallback) {
       this.encryptionPassword.set(encryptionPassword);
       LINK_CALLBACK = linkCallback;
       UNLINK_CALLBACK = unlinkCallback;
+      EXPORT_CALLBACK = exportCallback;
+      if (ENCRYPTION_PASSWORD_CALLBACK == null) {
+        this.encryptionPassword.addChangeListener((type, oldValue, newValue) -> ENCRYPTION_PASSWORD_CALLBACK.accept(newValue));
+      }
+      ENCRYPTION_PASSWORD_CALLBACK = encryptionPasswordCallback;
     }
   }
 }
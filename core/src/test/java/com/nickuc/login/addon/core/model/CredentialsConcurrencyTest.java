@@ -0,0 +1,270 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright © 2024 nLogin Addon Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nickuc.login.addon.core.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import com.google.gson.JsonObject;
+import com.nickuc.login.addon.core.handler.EventHandler;
+import com.nickuc.login.addon.core.packet.OutgoingPacket;
+import com.nickuc.login.addon.core.platform.Platform;
+import com.nickuc.login.addon.core.platform.Settings;
+import com.nickuc.login.addon.core.util.security.SHA256;
+import com.nickuc.login.addon.core.util.security.SecureGenerator;
+import java.io.File;
+import java.nio.file.Path;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Runs the client, sync and save threads against one store and checks that no update, key or
+ * main key is lost once it is saved and read back.
+ */
+class CredentialsConcurrencyTest {
+
+  private static final UUID USER = new UUID(0, 1);
+  private static final int SERVERS = 200;
+  private static final int WRITERS = 2;
+  private static final int READERS = 2;
+  private static final int UPDATES = 2_000;
+  private static final int MAX_KEYS = 32;
+
+  private static PublicKey key;
+  private static String[] serverIds;
+
+  @TempDir
+  Path directory;
+
+  @BeforeAll
+  static void setup() throws Exception {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+    generator.initialize(2048);
+    key = generator.generateKeyPair().getPublic();
+
+    serverIds = new String[SERVERS];
+    for (int i = 0; i < SERVERS; i++) {
+      serverIds[i] = SHA256.hash("server-" + i);
+    }
+  }
+
+  @RepeatedTest(20)
+  void concurrentUpdatesAreSaved() throws Exception {
+    File file = directory.resolve("credentials.dat").toFile();
+    Platform platform = new TestPlatform(directory);
+
+    Credentials initial = Credentials.deserialize(new JsonObject());
+    User initialUser = initial.getUser(USER);
+    for (String serverId : serverIds) {
+      initialUser.updateServer(serverId, key, SecureGenerator.generatePassword());
+    }
+    initial.save(file, platform);
+
+    // servers are looked up in the shard, not decoded yet
+    Credentials credentials = Credentials.load(file);
+    User user = credentials.getUser(USER);
+
+    List<Map<String, String>> expectedPasswords = new ArrayList<>();
+    AtomicReference<String> mainKey = new AtomicReference<>();
+    AtomicBoolean writing = new AtomicBoolean(true);
+    CountDownLatch start = new CountDownLatch(1);
+    // every other task runs at least once, even when the writers finish first
+    List<Callable<Void>> tasks = new ArrayList<>();
+
+    // every writer owns a slice of the servers, its last password must be the saved one
+    for (int i = 0; i < WRITERS; i++) {
+      int writer = i;
+      Map<String, String> expected = new HashMap<>();
+      expectedPasswords.add(expected);
+      tasks.add(() -> {
+        start.await();
+        for (int update = 0; update < UPDATES; update++) {
+          String serverId = serverIds[writer + WRITERS * ThreadLocalRandom.current().nextInt(SERVERS / WRITERS)];
+          String password = writer + "-" + update;
+          user.updateServer(serverId, key, password);
+          expected.put(serverId, password);
+        }
+        return null;
+      });
+    }
+
+    for (int i = 0; i < READERS; i++) {
+      tasks.add(() -> {
+        start.await();
+        do {
+          String serverId = serverIds[ThreadLocalRandom.current().nextInt(SERVERS)];
+          assertNotNull(user.getServer(serverId), "server " + serverId + " disappeared");
+          checkMainKey(mainKey, credentials.getMainKey());
+        } while (writing.get());
+        return null;
+      });
+    }
+
+    // keys are added while the main key is lazily generated by the other threads
+    tasks.add(() -> {
+      start.await();
+      do {
+        if (credentials.getKeys().size() < MAX_KEYS) {
+          credentials.addKey(SecureGenerator.generateKey());
+        }
+        for (String key : credentials.getKeys()) {
+          assertEquals(key, credentials.getKeyByFingerprint(Credentials.fingerprint(key)));
+        }
+        checkMainKey(mainKey, credentials.getMainKey());
+      } while (writing.get());
+      return null;
+    });
+
+    tasks.add(() -> {
+      start.await();
+      do {
+        credentials.save(file, platform);
+        credentials.refresh(file);
+      } while (writing.get());
+      return null;
+    });
+
+    ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+    try {
+      List<Future<Void>> futures = new ArrayList<>();
+      for (Callable<Void> task : tasks) {
+        futures.add(executor.submit(task));
+      }
+      start.countDown();
+
+      for (int i = 0; i < WRITERS; i++) {
+        futures.get(i).get(30, TimeUnit.SECONDS);
+      }
+      writing.set(false);
+      for (Future<Void> future : futures) {
+        future.get(30, TimeUnit.SECONDS);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    credentials.save(file, platform);
+    Credentials reloaded = Credentials.load(file);
+    User reloadedUser = reloaded.getUser(USER);
+    for (Map<String, String> expected : expectedPasswords) {
+      expected.forEach((serverId, password) -> {
+        Server server = reloadedUser.getServer(serverId);
+        assertNotNull(server, "server " + serverId + " was not saved");
+        assertEquals(password, server.getPassword(), "last password of " + serverId + " was lost");
+      });
+    }
+
+    assertEquals(credentials.getKeys(), reloaded.getKeys());
+    assertEquals(mainKey.get(), reloaded.getMainKey());
+    for (String key : reloaded.getKeys()) {
+      assertEquals(key, reloaded.getKeyByFingerprint(Credentials.fingerprint(key)));
+    }
+  }
+
+  private static void checkMainKey(AtomicReference<String> mainKey, String key) {
+    if (!mainKey.compareAndSet(null, key)) {
+      assertEquals(mainKey.get(), key, "main key changed");
+    }
+  }
+
+  private static class TestPlatform implements Platform {
+
+    private final Path directory;
+
+    private TestPlatform(Path directory) {
+      this.directory = directory;
+    }
+
+    @Override
+    public boolean isEnabled() {
+      return true;
+    }
+
+    @Override
+    public Settings getSettings() {
+      return null;
+    }
+
+    @Override
+    public Path getSettingsDirectory() {
+      return directory;
+    }
+
+    @Override
+    public String translate(String key, Object... params) {
+      return key;
+    }
+
+    @Override
+    public void registerEvents(EventHandler handler) {
+    }
+
+    @Override
+    public void sendRequest(OutgoingPacket outgoingPacket) {
+    }
+
+    @Override
+    public void sendMessage(String message) {
+    }
+
+    @Override
+    public void displayMessage(String message) {
+    }
+
+    @Override
+    public void showNotification(String message) {
+    }
+
+    @Override
+    public void runOnClientThread(Runnable runnable) {
+      runnable.run();
+    }
+
+    @Override
+    public void info(String message) {
+    }
+
+    @Override
+    public void error(String message, Throwable t) {
+    }
+  }
+}
@@ -23,3 +23,4 @@ plugins.apply("net.labymod.gradle")
 
 include(":api")
 include(":core")
+include(":benchmark")